@@ -1,12 +1,20 @@
 uniform mat4 u_Matrix;
 
-attribute vec4 a_Position;  
+attribute vec2 a_Position;
 attribute vec2 a_TextureCoordinates;
+attribute vec2 a_Translation;
+attribute vec2 a_Scale;
+attribute float a_Angle;
 
 varying vec2 v_TextureCoordinates;
 
 void main()
 {
+    vec2 scaled = a_Position * a_Scale;
+    float cosine = cos(a_Angle);
+    float sine = sin(a_Angle);
+    vec2 rotated = vec2((scaled.x * cosine) - (scaled.y * sine), (scaled.x * sine) + (scaled.y * cosine));
+
     v_TextureCoordinates = a_TextureCoordinates;
-    gl_Position = u_Matrix * a_Position; 
+    gl_Position = u_Matrix * vec4(rotated + a_Translation, 0.0, 1.0);
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+package com.misty.debug;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import android.util.Log;
+import com.misty.graphics.CollisionGrid;
+import com.misty.kernel.Process;
+
+public class CollisionBenchmark
+{
+	// compares the corner cells grid it replaced with the full coverage one, at a fixed and at a tuned cell size
+	public static void run(int numberProcesses, int worldSize, int minSize, int maxSize, int cellSize)
+	{
+		Random random = new Random(0);
+		List<Process> processes = new ArrayList<Process>();
+		
+		for (int i = 0; i < numberProcesses; i++)
+		{
+			Process process = new Process(false, true);
+			process.id = i;
+			process.width = minSize + random.nextInt((maxSize - minSize) + 1);
+			process.height = minSize + random.nextInt((maxSize - minSize) + 1);
+			process.x = random.nextInt(worldSize);
+			process.y = random.nextInt(worldSize);
+			processes.add(process);
+		}
+		
+		int overlapping = CollisionBenchmark.countOverlapping(processes);
+		Log.e("DEBUG", "COLLISIONS: " + numberProcesses + " processes, " + overlapping + " overlapping pairs");
+		
+		CollisionBenchmark.runCorners(processes, cellSize);
+		
+		CollisionGrid grid = new CollisionGrid();
+		grid.setCellSize(cellSize);
+		grid.tune();
+		
+		for (int i = 0; i < numberProcesses; i++)
+		{
+			grid.updateProcess(processes.get(i));
+		}
+		
+		CollisionBenchmark.log(grid, "full coverage");
+		
+		grid.setCellSize(grid.findBestCellSize());
+		grid.tune();
+		
+		CollisionBenchmark.log(grid, "tuned");
+	}
+	
+	private static void log(CollisionGrid grid, String name)
+	{
+		long start = System.nanoTime();
+		long cost = grid.estimateCost(grid.getCellSize());
+		long time = (System.nanoTime() - start) / 1000;
+		
+		Log.e("DEBUG", "COLLISIONS: " + name + ", cell " + grid.getCellSize() + ": " + grid.countCandidates() + " candidates, cost " + cost + ", estimated in " + time + " us");
+	}
+	
+	// the previous grid only filled the cells under the four corners of a process
+	private static void runCorners(List<Process> processes, int cellSize)
+	{
+		Map<Long, Integer> counts = new HashMap<Long, Integer>();
+		List<Set<Long>> processCells = new ArrayList<Set<Long>>();
+		
+		for (Process process : processes)
+		{
+			Set<Long> cells = new HashSet<Long>();
+			cells.add(CollisionBenchmark.getCellKey(process.x, process.y, cellSize));
+			cells.add(CollisionBenchmark.getCellKey(process.x, process.y + process.height, cellSize));
+			cells.add(CollisionBenchmark.getCellKey(process.x + process.width, process.y + process.height, cellSize));
+			cells.add(CollisionBenchmark.getCellKey(process.x + process.width, process.y, cellSize));
+			processCells.add(cells);
+			
+			for (Long cell : cells)
+			{
+				Integer count = counts.get(cell);
+				counts.put(cell, (count == null) ? 1 : (count + 1));
+			}
+		}
+		
+		long candidates = 0;
+		
+		for (Integer count : counts.values())
+		{
+			candidates += (long)count * (count - 1);
+		}
+		
+		int missed = 0;
+		
+		for (int i = 0; i < processes.size(); i++)
+		{
+			for (int j = i + 1; j < processes.size(); j++)
+			{
+				if (CollisionBenchmark.overlap(processes.get(i), processes.get(j)))
+				{
+					Set<Long> shared = new HashSet<Long>(processCells.get(i));
+					shared.retainAll(processCells.get(j));
+					
+					if (shared.isEmpty())
+					{
+						missed++;
+					}
+				}
+			}
+		}
+		
+		Log.e("DEBUG", "COLLISIONS: corners, cell " + cellSize + ": " + candidates + " candidates, " + missed + " missed");
+	}
+	
+	private static int countOverlapping(List<Process> processes)
+	{
+		int result = 0;
+		
+		for (int i = 0; i < processes.size(); i++)
+		{
+			for (int j = i + 1; j < processes.size(); j++)
+			{
+				if (CollisionBenchmark.overlap(processes.get(i), processes.get(j)))
+				{
+					result++;
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	private static boolean overlap(Process a, Process b)
+	{
+		return (a.x < (b.x + b.width)) && ((a.x + a.width) > b.x) && (a.y < (b.y + b.height)) && ((a.y + a.height) > b.y);
+	}
+	
+	private static long getCellKey(float x, float y, int cellSize)
+	{
+		long cellX = (long)Math.floor(x / cellSize);
+		long cellY = (long)Math.floor(y / cellSize);
+		
+		return (cellX << 32) | (cellY & 0xFFFFFFFFL);
+	}
+}
\ No newline at end of file
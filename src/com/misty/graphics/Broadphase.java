@@ -0,0 +1,36 @@
+package com.misty.graphics;
+
+import java.util.List;
+import com.misty.kernel.Process;
+
+public interface Broadphase
+{
+	public void updateProcess(Process process);
+	
+	public void removeProcess(Process process);
+	
+	public boolean contains(Process process);
+	
+	public void clear();
+	
+	// called once per update, after every process has been moved
+	public void finishUpdate();
+	
+	// only processes whose category shares a bit with the mask, and with the collidesWith mask of the process, are tested
+	public List<Process> getCollisions(Process process, List<Process> result, int mask);
+	
+	// the queries add the processes whose bounds are hit and whose category shares a bit with the mask, without clearing the result
+	public void query(float left, float bottom, float right, float top, int mask, List<Process> result);
+	
+	public void queryPoint(float x, float y, int mask, List<Process> result);
+	
+	public void queryCircle(float x, float y, float radius, int mask, List<Process> result);
+	
+	public void queryRay(float x1, float y1, float x2, float y2, int mask, List<Process> result);
+	
+	// the process whose bounds the segment enters first, null when there is none
+	public Process raycast(float x1, float y1, float x2, float y2, int mask);
+	
+	// up to count processes, nearest first, measured to their bounds, a max distance of 0 or less is no limit
+	public void queryNearest(float x, float y, int count, float maxDistance, int mask, List<Process> result);
+}
\ No newline at end of file
@@ -0,0 +1,68 @@
+package com.misty.graphics;
+
+import java.nio.Buffer;
+import android.opengl.GLES20;
+
+public class BufferObject
+{
+	private final int target;
+	private final int usage;
+	private final int capacity;
+	private final Buffer data;
+	private int bufferId = 0;
+	
+	public BufferObject(int target, int usage, int capacity, Buffer data)
+	{
+		this.target = target;
+		this.usage = usage;
+		this.capacity = capacity;
+		this.data = data;
+	}
+	
+	public void create()
+	{
+		int[] bufferObjectIds = new int[1];
+		GLES20.glGenBuffers(1, bufferObjectIds, 0);
+		
+		this.bufferId = bufferObjectIds[0];
+		
+		if (this.bufferId != 0)
+		{
+			GLES20.glBindBuffer(this.target, this.bufferId);
+			
+			// Static buffers receive their content once, dynamic ones are only allocated here.
+			if (this.data != null)
+			{
+				this.data.position(0);
+			}
+			
+			GLES20.glBufferData(this.target, this.capacity, this.data, this.usage);
+			GLES20.glBindBuffer(this.target, 0);
+		}
+	}
+	
+	public void delete()
+	{
+		if (this.bufferId != 0)
+		{
+			int[] bufferObjectIds = new int[] { this.bufferId };
+			GLES20.glDeleteBuffers(1, bufferObjectIds, 0);
+			
+			this.bufferId = 0;
+		}
+	}
+	
+	public int getId()
+	{
+		return this.bufferId;
+	}
+	
+	public void update(Buffer source, int size)
+	{
+		// Orphaning the previous storage avoids waiting for draws still reading it.
+		GLES20.glBufferData(this.target, this.capacity, null, this.usage);
+		
+		source.position(0);
+		GLES20.glBufferSubData(this.target, 0, size, source);
+	}
+}
\ No newline at end of file
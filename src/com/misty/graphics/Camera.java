@@ -8,11 +8,29 @@ public class Camera
 	public float y = 0;
 	public int width = 0;
 	public int height = 0;
+	public float previousX = 0;
+	public float previousY = 0;
 
 	public Camera()
 	{
 	}
 
+	public void set(Camera camera)
+	{
+		this.x = camera.x;
+		this.y = camera.y;
+		this.width = camera.width;
+		this.height = camera.height;
+		this.previousX = camera.previousX;
+		this.previousY = camera.previousY;
+	}
+
+	public void saveState()
+	{
+		this.previousX = this.x;
+		this.previousY = this.y;
+	}
+
 	public void setSize(ScreenResolution screenResolution)
 	{
 		this.width = screenResolution.horizontal;
@@ -0,0 +1,302 @@
+package com.misty.graphics;
+
+import com.misty.kernel.Process;
+import com.misty.math.Rectangle;
+import com.misty.utils.LongMap;
+
+// processes keyed by their id, each one listed in every cell of its range, shared by the collision and culling grids
+class CellIndex
+{
+	// cell key -> index of its cell, the cells in use are packed at the front of the pool
+	private final LongMap cellIndexes = new LongMap(256);
+	private Cell[] cells = new Cell[64];
+	private int cellCount = 0;
+	
+	// process id -> index of its entry, packed the same way
+	private final LongMap entryIndexes = new LongMap(256);
+	private Entry[] entries = new Entry[64];
+	private int entryCount = 0;
+	
+	public void clear()
+	{
+		clearCells();
+		
+		for (int i = 0; i < this.entryCount; i++)
+		{
+			this.entries[i].process = null;
+		}
+		
+		this.entryIndexes.clear();
+		this.entryCount = 0;
+	}
+	
+	// the entries are kept, they are listed again with addToCells
+	public void clearCells()
+	{
+		for (int i = 0; i < this.cellCount; i++)
+		{
+			this.cells[i].clear();
+		}
+		
+		this.cellIndexes.clear();
+		this.cellCount = 0;
+	}
+	
+	public int size()
+	{
+		return this.entryCount;
+	}
+	
+	public Entry getEntry(int index)
+	{
+		return this.entries[index];
+	}
+	
+	public int getCellCount()
+	{
+		return this.cellCount;
+	}
+	
+	public Cell getCell(int index)
+	{
+		return this.cells[index];
+	}
+	
+	// null when no process is in the cell
+	public Cell getCell(int cellX, int cellY)
+	{
+		int index = this.cellIndexes.get(CellIndex.getKey(cellX, cellY));
+		
+		return (index == LongMap.MISSING) ? null : this.cells[index];
+	}
+	
+	public boolean contains(Process process)
+	{
+		return this.entryIndexes.containsKey(process.id);
+	}
+	
+	// adds the process or moves it to the range, only crossing a cell boundary touches the cells
+	public void put(Process process, Entry range)
+	{
+		int index = this.entryIndexes.get(process.id);
+		
+		if (index == LongMap.MISSING)
+		{
+			index = this.entryCount++;
+			
+			if (index == this.entries.length)
+			{
+				Entry[] newEntries = new Entry[index * 2];
+				System.arraycopy(this.entries, 0, newEntries, 0, index);
+				this.entries = newEntries;
+			}
+			
+			// entries freed earlier are reused
+			if (this.entries[index] == null)
+			{
+				this.entries[index] = new Entry();
+			}
+			
+			Entry entry = this.entries[index];
+			entry.process = process;
+			entry.setRange(range);
+			this.entryIndexes.put(process.id, index);
+			
+			addToCells(entry);
+		}
+		else
+		{
+			Entry entry = this.entries[index];
+			
+			if (!entry.hasRange(range))
+			{
+				removeFromCells(entry);
+				entry.setRange(range);
+				addToCells(entry);
+			}
+		}
+	}
+	
+	public void remove(Process process)
+	{
+		int index = this.entryIndexes.get(process.id);
+		
+		if (index != LongMap.MISSING)
+		{
+			Entry entry = this.entries[index];
+			removeFromCells(entry);
+			entry.process = null;
+			this.entryIndexes.remove(process.id);
+			
+			// the last entry takes the freed place
+			int last = --this.entryCount;
+			
+			if (index != last)
+			{
+				Entry moved = this.entries[last];
+				this.entries[index] = moved;
+				this.entries[last] = entry;
+				this.entryIndexes.put(moved.process.id, index);
+			}
+		}
+	}
+	
+	public void addToCells(Entry entry)
+	{
+		for (int cellY = entry.minY; cellY <= entry.maxY; cellY++)
+		{
+			for (int cellX = entry.minX; cellX <= entry.maxX; cellX++)
+			{
+				long key = CellIndex.getKey(cellX, cellY);
+				int index = this.cellIndexes.get(key);
+				
+				if (index == LongMap.MISSING)
+				{
+					index = this.cellCount++;
+					
+					if (index == this.cells.length)
+					{
+						Cell[] newCells = new Cell[index * 2];
+						System.arraycopy(this.cells, 0, newCells, 0, index);
+						this.cells = newCells;
+					}
+					
+					// cells freed earlier are reused with their arrays
+					if (this.cells[index] == null)
+					{
+						this.cells[index] = new Cell();
+					}
+					
+					this.cells[index].key = key;
+					this.cellIndexes.put(key, index);
+				}
+				
+				this.cells[index].add(entry);
+			}
+		}
+	}
+	
+	private void removeFromCells(Entry entry)
+	{
+		for (int cellY = entry.minY; cellY <= entry.maxY; cellY++)
+		{
+			for (int cellX = entry.minX; cellX <= entry.maxX; cellX++)
+			{
+				long key = CellIndex.getKey(cellX, cellY);
+				int index = this.cellIndexes.get(key);
+				
+				if (index != LongMap.MISSING)
+				{
+					Cell cell = this.cells[index];
+					cell.remove(entry);
+					
+					if (cell.size == 0)
+					{
+						this.cellIndexes.remove(key);
+						
+						// the last cell in use takes the freed place, the empty one is kept for later
+						int last = --this.cellCount;
+						
+						if (index != last)
+						{
+							Cell moved = this.cells[last];
+							this.cells[index] = moved;
+							this.cells[last] = cell;
+							this.cellIndexes.put(moved.key, index);
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	// the cell x in the high half, the cell y in the low one, no two cells share a key
+	public static long getKey(int cellX, int cellY)
+	{
+		return (((long)cellX) << 32) | (cellY & 0xFFFFFFFFL);
+	}
+	
+	public static int getCell(float value, int cellSize)
+	{
+		return (int)Math.floor(value / cellSize);
+	}
+	
+	public static class Entry
+	{
+		public Process process;
+		public int minX;
+		public int minY;
+		public int maxX;
+		public int maxY;
+		
+		public void setRange(Rectangle bounds, int cellSize)
+		{
+			setRange(bounds.x, bounds.y, bounds.getRight(), bounds.getTop(), cellSize);
+		}
+		
+		public void setRange(float left, float bottom, float right, float top, int cellSize)
+		{
+			this.minX = CellIndex.getCell(left, cellSize);
+			this.minY = CellIndex.getCell(bottom, cellSize);
+			this.maxX = CellIndex.getCell(right, cellSize);
+			this.maxY = CellIndex.getCell(top, cellSize);
+		}
+		
+		public void setRange(Entry entry)
+		{
+			this.minX = entry.minX;
+			this.minY = entry.minY;
+			this.maxX = entry.maxX;
+			this.maxY = entry.maxY;
+		}
+		
+		public boolean hasRange(Entry entry)
+		{
+			return (this.minX == entry.minX) && (this.minY == entry.minY) && (this.maxX == entry.maxX) && (this.maxY == entry.maxY);
+		}
+	}
+	
+	public static class Cell
+	{
+		public long key;
+		public Entry[] entries = new Entry[8];
+		public int size = 0;
+		
+		public void add(Entry entry)
+		{
+			if (this.size == this.entries.length)
+			{
+				Entry[] newEntries = new Entry[this.size * 2];
+				System.arraycopy(this.entries, 0, newEntries, 0, this.size);
+				this.entries = newEntries;
+			}
+			
+			this.entries[this.size++] = entry;
+		}
+		
+		public void remove(Entry entry)
+		{
+			for (int i = 0; i < this.size; i++)
+			{
+				if (this.entries[i] == entry)
+				{
+					// the order inside a cell does not matter
+					this.entries[i] = this.entries[--this.size];
+					this.entries[this.size] = null;
+					
+					return;
+				}
+			}
+		}
+		
+		public void clear()
+		{
+			for (int i = 0; i < this.size; i++)
+			{
+				this.entries[i] = null;
+			}
+			
+			this.size = 0;
+		}
+	}
+}
\ No newline at end of file
@@ -2,208 +2,516 @@ package com.misty.graphics;
 
 import java.util.ArrayList;
 import java.util.List;
-import android.graphics.Color;
-import android.util.SparseArray;
-import com.misty.graphics.textures.Texture;
+import com.misty.kernel.CollisionLayers;
 import com.misty.kernel.Process;
 import com.misty.math.Rectangle;
+import com.misty.math.Utils;
+import com.misty.utils.LongMap;
 
-public class CollisionGrid
+public class CollisionGrid implements Broadphase
 {
-	private final SparseArray<List<Process>> grid = new SparseArray<List<Process>>();
+	private final CellIndex index = new CellIndex();
+	private final List<TileMap> tileMaps = new ArrayList<TileMap>();
+	private final CellIndex.Entry query = new CellIndex.Entry();
+	private final NearestProcesses nearest = new NearestProcesses();
+	private final Rectangle bounds = new Rectangle(0, 0, 0, 0);
+	private int cellSize;
+	
+	// cell size tuning, requested from any thread and applied by the simulation
+	private volatile int requestedCellSize = 0;
+	private volatile boolean autoCellSize = false;
+	private int updatesSinceTuning = 0;
+	private final LongMap tuningCounts = new LongMap(256);
+	
 	private static int CELL_SIZE = 32;
-	private static int CELLS_PER_ROW = (int)Math.sqrt(Integer.MAX_VALUE);
+	private static final int MIN_CELL_SIZE = 16;
+	private static final int MAX_CELL_SIZE = 1024;
+	private static final int TUNING_INTERVAL = 300;
+	private static final int TUNING_SAMPLES = 256;
 	
 	public static void initialize(int cellSize)
 	{
 		CollisionGrid.CELL_SIZE = cellSize;
 	}
 	
+	public CollisionGrid()
+	{
+		this.cellSize = CollisionGrid.CELL_SIZE;
+	}
+	
 	public void clear()
 	{
-		this.grid.clear();
+		this.index.clear();
 	}
 	
 	public void addProcess(Process process)
 	{
-		int[] cells = getProcessCells(process);
-		
-		int cellLeftBottom = cells[0];
-		int cellLeftTop = cells[1];
-		int cellRightTop = cells[2];
-		int cellLRightBottom = cells[3];
-		
-		addProcessToTable(process, cellLeftBottom);
+		updateProcess(process);
+	}
+	
+	// only crossing a cell boundary touches the grid
+	public void updateProcess(Process process)
+	{
+		this.query.setRange(process.getCollisionBounds(this.bounds), this.cellSize);
+		this.index.put(process, this.query);
+	}
+	
+	public void removeProcess(Process process)
+	{
+		this.index.remove(process);
+	}
+	
+	public boolean contains(Process process)
+	{
+		return this.index.contains(process);
+	}
+	
+	public int getCellSize()
+	{
+		return this.cellSize;
+	}
+	
+	public void setCellSize(int cellSize)
+	{
+		this.autoCellSize = false;
+		this.requestedCellSize = cellSize;
+	}
+	
+	public void setAutoCellSize(boolean autoCellSize)
+	{
+		this.autoCellSize = autoCellSize;
+	}
+	
+	public boolean isAutoCellSize()
+	{
+		return this.autoCellSize;
+	}
+	
+	// ========================= CELL SIZE ======================== \\
+	
+	public void finishUpdate()
+	{
+		tune();
+	}
+	
+	public void tune()
+	{
+		int cellSize = this.cellSize;
+		int requested = this.requestedCellSize;
 		
-		if (cellLeftTop != cellLeftBottom)
+		if (requested > 0)
 		{
-			addProcessToTable(process, cellLeftTop);
+			this.requestedCellSize = 0;
+			cellSize = requested;
 		}
-		
-		if ((cellRightTop != cellLeftBottom) && (cellRightTop != cellLeftTop))
+		else if (this.autoCellSize && (++this.updatesSinceTuning >= CollisionGrid.TUNING_INTERVAL))
 		{
-			addProcessToTable(process, cellRightTop);
+			this.updatesSinceTuning = 0;
+			cellSize = findBestCellSize();
 		}
 		
-		if ((cellLRightBottom != cellLeftBottom) && (cellLRightBottom != cellLeftTop) && (cellLRightBottom != cellRightTop))
+		if (cellSize != this.cellSize)
 		{
-			addProcessToTable(process, cellLRightBottom);
+			rebuild(cellSize);
 		}
 	}
 	
-	private int[] getProcessCells(Process process)
+	public int findBestCellSize()
 	{
-		int cellLeftBottom = getCellId(process.x, process.y);
-		int cellLeftTop = getCellId(process.x, process.y + process.height);
-		int cellRightTop = getCellId(process.x + process.width, process.y + process.height);
-		int cellLRightBottom = getCellId(process.x + process.width, process.y);
+		int result = this.cellSize;
+		long bestCost = estimateCost(result);
 		
-		return new int[]
+		for (int size = CollisionGrid.MIN_CELL_SIZE; size <= CollisionGrid.MAX_CELL_SIZE; size *= 2)
+		{
+			long cost = estimateCost(size);
+			
+			// a rebuild costs as much as a few frames, small gains are not worth it
+			if ((cost * 5) < (bestCost * 4))
 			{
-			    cellLeftBottom, cellLeftTop, cellRightTop, cellLRightBottom
-			};
+				bestCost = cost;
+				result = size;
+			}
+		}
+		
+		return result;
 	}
 	
-	private int getCellId(float x, float y)
+	// the work of one update plus one query per process: every cell visited and every candidate checked
+	public long estimateCost(int cellSize)
 	{
-		int cellX = (int)Math.floor(x / CollisionGrid.CELL_SIZE);
-		int cellY = (int)Math.floor(y / CollisionGrid.CELL_SIZE);
+		this.tuningCounts.clear();
+		
+		int size = this.index.size();
+		int step = Math.max(1, size / CollisionGrid.TUNING_SAMPLES);
+		long cellsVisited = 0;
+		long candidates = 0;
+		
+		for (int i = 0; i < size; i += step)
+		{
+			this.query.setRange(this.index.getEntry(i).process.getCollisionBounds(this.bounds), cellSize);
+			
+			for (int cellY = this.query.minY; cellY <= this.query.maxY; cellY++)
+			{
+				for (int cellX = this.query.minX; cellX <= this.query.maxX; cellX++)
+				{
+					long key = CellIndex.getKey(cellX, cellY);
+					int count = this.tuningCounts.get(key);
+					count = (count == LongMap.MISSING) ? 1 : (count + 1);
+					this.tuningCounts.put(key, count);
+					
+					// every process already in the cell is a candidate of this one, and the other way around
+					candidates += 2 * (count - 1);
+					cellsVisited++;
+				}
+			}
+		}
 		
-		return cellX + (cellY * CollisionGrid.CELLS_PER_ROW);
+		// a sample of one process in n meets one candidate in n^2
+		return (cellsVisited * step) + (candidates * step * step);
 	}
 	
-	private void addProcessToTable(Process process, int cellId)
+	// the candidates checked by a query of every process, as getCollisions would
+	public long countCandidates()
 	{
-		List<Process> list = this.grid.get(cellId);
+		long result = 0;
+		
+		int cellCount = this.index.getCellCount();
 		
-		if (list == null)
+		for (int i = 0; i < cellCount; i++)
 		{
-			List<Process> newList = new ArrayList<Process>();
-			newList.add(process);
-			
-			this.grid.put(cellId, newList);
+			int size = this.index.getCell(i).size;
+			result += (long)size * (size - 1);
 		}
-		else
+		
+		return result;
+	}
+	
+	private void rebuild(int cellSize)
+	{
+		this.index.clearCells();
+		this.cellSize = cellSize;
+		
+		int size = this.index.size();
+		
+		for (int i = 0; i < size; i++)
 		{
-			list.add(process);
+			CellIndex.Entry entry = this.index.getEntry(i);
+			entry.setRange(entry.process.getCollisionBounds(this.bounds), cellSize);
+			this.index.addToCells(entry);
 		}
 	}
 	
+	// ========================= QUERIES ======================== \\
+	
 	public List<Process> getCollisions(Process process, Class<?>... classes)
 	{
-		List<Process> result = new ArrayList<Process>();
-		
-		int[] cells = getProcessCells(process);
-		
-		int cellLeftBottom = cells[0];
-		int cellLeftTop = cells[1];
-		int cellRightTop = cells[2];
-		int cellLRightBottom = cells[3];
+		return getCollisions(process, new ArrayList<Process>(), CollisionLayers.getMask(classes));
+	}
+	
+	// fills the given list, which is cleared first, so the same one can be used every frame
+	public List<Process> getCollisions(Process process, List<Process> result, int mask)
+	{
+		result.clear();
 		
-		checkProcessCollisions(process, cellLeftBottom, result, classes);
+		int filter = mask & process.collidesWith;
 		
-		if (cellLeftTop != cellLeftBottom)
+		if (filter == 0)
 		{
-			checkProcessCollisions(process, cellLeftTop, result, classes);
+			return result;
 		}
 		
-		if ((cellRightTop != cellLeftBottom) && (cellRightTop != cellLeftTop))
-		{
-			checkProcessCollisions(process, cellRightTop, result, classes);
-		}
+		CellIndex.Entry range = this.query;
+		range.setRange(process.getCollisionBounds(this.bounds), this.cellSize);
 		
-		if ((cellLRightBottom != cellLeftBottom) && (cellLRightBottom != cellLeftTop) && (cellLRightBottom != cellRightTop))
+		for (int cellY = range.minY; cellY <= range.maxY; cellY++)
 		{
-			checkProcessCollisions(process, cellLRightBottom, result, classes);
+			for (int cellX = range.minX; cellX <= range.maxX; cellX++)
+			{
+				CellIndex.Cell cell = this.index.getCell(cellX, cellY);
+				
+				if (cell != null)
+				{
+					checkProcessCollisions(process, range, cellX, cellY, cell, result, filter);
+				}
+			}
 		}
 		
 		return result;
 	}
 	
-	private void checkProcessCollisions(Process process, int cellId, List<Process> result, Class<?>... classes)
+	public void query(float left, float bottom, float right, float top, int mask, List<Process> result)
+	{
+		queryRange(left, bottom, right, top, 0, 0, -1, mask, result);
+	}
+	
+	public void queryPoint(float x, float y, int mask, List<Process> result)
+	{
+		queryRange(x, y, x, y, 0, 0, -1, mask, result);
+	}
+	
+	public void queryCircle(float x, float y, float radius, int mask, List<Process> result)
+	{
+		queryRange(x - radius, y - radius, x + radius, y + radius, x, y, radius * radius, mask, result);
+	}
+	
+	// the processes overlapping the box, and the circle when its squared radius is not negative
+	private void queryRange(float left, float bottom, float right, float top, float x, float y, float radiusSquared, int mask, List<Process> result)
 	{
-		List<Process> list = this.grid.get(cellId);
+		CellIndex.Entry range = this.query;
+		range.setRange(left, bottom, right, top, this.cellSize);
 		
-		if (list != null)
+		for (int cellY = range.minY; cellY <= range.maxY; cellY++)
 		{
-			int size = list.size();
-			
-			for (int i = 0; i < size; i++)
+			for (int cellX = range.minX; cellX <= range.maxX; cellX++)
 			{
-				Process currentProcess = list.get(i);
+				CellIndex.Cell cell = this.index.getCell(cellX, cellY);
 				
-				if ((currentProcess != process) && (!result.contains(currentProcess)) && (isValidClass(currentProcess, classes)))
+				if (cell != null)
 				{
-					if (CollisionGrid.collide(process, currentProcess))
+					for (int i = 0; i < cell.size; i++)
 					{
-						result.add(currentProcess);
+						CellIndex.Entry entry = cell.entries[i];
+						Process process = entry.process;
+						
+						if (((process.getCollisionCategory() & mask) != 0) && (cellX == Math.max(entry.minX, range.minX)) && (cellY == Math.max(entry.minY, range.minY)))
+						{
+							Rectangle bounds = process.getCollisionBounds(this.bounds);
+							
+							if ((bounds.x <= right) && (bounds.getRight() >= left) && (bounds.y <= top) && (bounds.getTop() >= bottom))
+							{
+								if ((radiusSquared < 0) || (Utils.getDistanceSquared(bounds.x, bounds.y, bounds.getRight(), bounds.getTop(), x, y) <= radiusSquared))
+								{
+									result.add(process);
+								}
+							}
+						}
 					}
 				}
 			}
 		}
 	}
 	
-	private boolean isValidClass(Process process, Class<?>... classes)
+	public void queryRay(float x1, float y1, float x2, float y2, int mask, List<Process> result)
 	{
-		boolean result = false;
+		walkRay(x1, y1, x2, y2, mask, result);
+	}
+	
+	public Process raycast(float x1, float y1, float x2, float y2, int mask)
+	{
+		return walkRay(x1, y1, x2, y2, mask, null);
+	}
+	
+	// the cells crossed by the segment, in order, walking to the nearest boundary each time
+	// with a result every hit is added, without one the first hit is returned
+	private Process walkRay(float x1, float y1, float x2, float y2, int mask, List<Process> result)
+	{
+		int first = (result != null) ? result.size() : 0;
+		Process nearest = null;
+		float nearestHit = Float.MAX_VALUE;
+		
+		int cellX = CellIndex.getCell(x1, this.cellSize);
+		int cellY = CellIndex.getCell(y1, this.cellSize);
+		int lastCellX = CellIndex.getCell(x2, this.cellSize);
+		int lastCellY = CellIndex.getCell(y2, this.cellSize);
+		float dx = x2 - x1;
+		float dy = y2 - y1;
+		int stepX = (dx > 0) ? 1 : -1;
+		int stepY = (dy > 0) ? 1 : -1;
+		
+		float deltaX = (dx == 0) ? Float.MAX_VALUE : Math.abs(this.cellSize / dx);
+		float deltaY = (dy == 0) ? Float.MAX_VALUE : Math.abs(this.cellSize / dy);
+		float nextX = (dx == 0) ? Float.MAX_VALUE : ((((dx > 0) ? (cellX + 1) : cellX) * this.cellSize) - x1) / dx;
+		float nextY = (dy == 0) ? Float.MAX_VALUE : ((((dy > 0) ? (cellY + 1) : cellY) * this.cellSize) - y1) / dy;
+		int steps = Math.abs(lastCellX - cellX) + Math.abs(lastCellY - cellY);
 		
-		for (Class<?> classe : classes)
+		for (int step = 0; step <= steps; step++)
 		{
-			if (process.getClass().equals(classe))
+			CellIndex.Cell cell = this.index.getCell(cellX, cellY);
+			
+			if (cell != null)
+			{
+				for (int i = 0; i < cell.size; i++)
+				{
+					Process process = cell.entries[i].process;
+					
+					if ((process.getCollisionCategory() & mask) != 0)
+					{
+						Rectangle bounds = process.getCollisionBounds(this.bounds);
+						float hit = Utils.getSegmentHit(bounds.x, bounds.y, bounds.getRight(), bounds.getTop(), x1, y1, x2, y2);
+						
+						if (hit >= 0)
+						{
+							if (result == null)
+							{
+								if (hit < nearestHit)
+								{
+									nearestHit = hit;
+									nearest = process;
+								}
+							}
+							else if (result.lastIndexOf(process) < first)
+							{
+								// a process spanning several crossed cells is only added once
+								result.add(process);
+							}
+						}
+					}
+				}
+			}
+			
+			float exit = Math.min(nextX, nextY);
+			
+			// a hit in a later cell enters its box after this cell is left
+			if ((nearest != null) && (nearestHit <= exit))
 			{
-				result = true;
 				break;
 			}
+			
+			if (nextX < nextY)
+			{
+				cellX += stepX;
+				nextX += deltaX;
+			}
+			else
+			{
+				cellY += stepY;
+				nextY += deltaY;
+			}
 		}
 		
-		return result;
+		return nearest;
 	}
 	
-	public static boolean collide(Process processA, Process processB)
+	// the rings of cells around the point are searched outwards until no closer process can be found
+	public void queryNearest(float x, float y, int count, float maxDistance, int mask, List<Process> result)
 	{
-		boolean result = false;
+		this.nearest.reset(count, maxDistance);
+		
+		int centerX = CellIndex.getCell(x, this.cellSize);
+		int centerY = CellIndex.getCell(y, this.cellSize);
+		int cellCount = this.index.getCellCount();
+		int cellsFound = 0;
 		
-		if (processA.visible && processB.visible)
+		for (int ring = 0; (count > 0) && (cellsFound < cellCount); ring++)
 		{
-			Texture textureA = processA.texture;
-			Texture textureB = processB.texture;
+			// the point is inside the center cell, the cells of this ring are at least this far
+			float ringDistance = Math.max(ring - 1, 0) * this.cellSize;
 			
-			if ((textureA != null) && (textureB != null))
+			if ((ringDistance * ringDistance) > this.nearest.getLimit())
 			{
-				int xA = (int)processA.x;
-				int yA = (int)processA.y;
-				
-				int xB = (int)processB.x;
-				int yB = (int)processB.y;
+				break;
+			}
+			
+			// a ring this large probes more keys than there are cells, the cells in use are read directly instead
+			if ((ring * 8) > cellCount)
+			{
+				for (int i = 0; i < cellCount; i++)
+				{
+					offerNearest(this.index.getCell(i), x, y, mask);
+				}
 				
-				Rectangle rectangleA = new Rectangle(xA, yA, textureA.width, textureA.height);
-				Rectangle rectangleB = new Rectangle(xB, yB, textureB.width, textureB.height);
+				break;
+			}
+			
+			for (int cellY = centerY - ring; cellY <= centerY + ring; cellY++)
+			{
+				boolean edge = (cellY == (centerY - ring)) || (cellY == (centerY + ring));
+				int stepX = (edge || (ring == 0)) ? 1 : (ring * 2);
 				
-				if (rectangleA.intersect(rectangleB))
+				for (int cellX = centerX - ring; cellX <= centerX + ring; cellX += stepX)
 				{
-					int[][] bitmapA = textureA.pixelMap;
-					int[][] bitmapB = textureB.pixelMap;
-					
-					int intersectionWidth = (int)rectangleA.width;
-					int intersectionHeight = (int)rectangleA.height;
+					CellIndex.Cell cell = this.index.getCell(cellX, cellY);
 					
-					for (int x = 0; ((x < intersectionWidth) && (!result)); x++)
+					if (cell != null)
 					{
-						for (int y = 0; (y < intersectionHeight) && (!result); y++)
-						{
-							int realX = x + (int)rectangleA.x;
-							int realY = y + (int)rectangleA.y;
-							
-							int alphaA = Color.alpha(bitmapA[realX - xA][realY - yA]);
-							int alphaB = Color.alpha(bitmapB[realX - xB][realY - yB]);
-							
-							result = (alphaA > 0) && (alphaB > 0);
-						}
+						offerNearest(cell, x, y, mask);
+						cellsFound++;
 					}
 				}
 			}
 		}
 		
-		return result;
+		this.nearest.addTo(result);
+	}
+	
+	private void offerNearest(CellIndex.Cell cell, float x, float y, int mask)
+	{
+		for (int i = 0; i < cell.size; i++)
+		{
+			Process process = cell.entries[i].process;
+			
+			if ((process.getCollisionCategory() & mask) != 0)
+			{
+				Rectangle bounds = process.getCollisionBounds(this.bounds);
+				this.nearest.offer(process, Utils.getDistanceSquared(bounds.x, bounds.y, bounds.getRight(), bounds.getTop(), x, y));
+			}
+		}
+	}
+	
+	private void checkProcessCollisions(Process process, CellIndex.Entry range, int cellX, int cellY, CellIndex.Cell cell, List<Process> result, int mask)
+	{
+		CellIndex.Entry[] list = cell.entries;
+		int size = cell.size;
+		
+		for (int i = 0; i < size; i++)
+		{
+			CellIndex.Entry entry = list[i];
+			Process currentProcess = entry.process;
+			
+			// a process sharing several cells with the query is only checked in the first of them
+			if ((cellX == Math.max(entry.minX, range.minX)) && (cellY == Math.max(entry.minY, range.minY)))
+			{
+				if ((currentProcess != process) && ((currentProcess.getCollisionCategory() & mask) != 0))
+				{
+					if (Narrowphase.collide(process, currentProcess))
+					{
+						result.add(currentProcess);
+					}
+				}
+			}
+		}
+	}
+	
+	// ========================= TILEMAPS ======================== \\
+	
+	public void addTileMap(TileMap tileMap)
+	{
+		this.tileMaps.add(tileMap);
+	}
+	
+	public void removeTileMap(TileMap tileMap)
+	{
+		this.tileMaps.remove(tileMap);
+	}
+	
+	public boolean isSolid(float x, float y)
+	{
+		int size = this.tileMaps.size();
+		
+		for (int i = 0; i < size; i++)
+		{
+			if (this.tileMaps.get(i).isSolidAt(x, y))
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	public boolean collidesWithTiles(Process process)
+	{
+		int size = this.tileMaps.size();
+		Rectangle bounds = process.getCollisionBounds(this.bounds);
+		
+		for (int i = 0; i < size; i++)
+		{
+			if (this.tileMaps.get(i).isSolid(bounds.x, bounds.y, bounds.getRight(), bounds.getTop()))
+			{
+				return true;
+			}
+		}
+		
+		return false;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,7 @@
+package com.misty.graphics;
+
+// the opaque bounds of the texture, a circle around them, the convex hull of its opaque pixels or the pixels themselves
+public enum CollisionShape
+{
+	BOX, CIRCLE, POLYGON, PIXELS
+}
\ No newline at end of file
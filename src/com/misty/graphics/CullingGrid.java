@@ -0,0 +1,100 @@
+package com.misty.graphics;
+
+import com.misty.kernel.Process;
+
+public class CullingGrid
+{
+	private final CellIndex index = new CellIndex();
+	private final CellIndex.Entry range = new CellIndex.Entry();
+	private final int cellSize;
+	private int[] results = new int[64];
+	
+	public static final int DEFAULT_CELL_SIZE = 256;
+	
+	public CullingGrid(int cellSize)
+	{
+		this.cellSize = cellSize;
+	}
+	
+	public CullingGrid()
+	{
+		this(CullingGrid.DEFAULT_CELL_SIZE);
+	}
+	
+	public void clear()
+	{
+		this.index.clear();
+	}
+	
+	public int size()
+	{
+		return this.index.size();
+	}
+	
+	// only moving to another cell touches the grid
+	public void add(Process process)
+	{
+		this.range.setRange(process.x, process.y, process.x + process.width, process.y + process.height, this.cellSize);
+		this.index.put(process, this.range);
+	}
+	
+	public void update(Process process)
+	{
+		add(process);
+	}
+	
+	public void remove(Process process)
+	{
+		this.index.remove(process);
+	}
+	
+	public boolean contains(Process process)
+	{
+		return this.index.contains(process);
+	}
+	
+	public int query(float left, float bottom, float right, float top)
+	{
+		int minX = CellIndex.getCell(left, this.cellSize);
+		int minY = CellIndex.getCell(bottom, this.cellSize);
+		int maxX = CellIndex.getCell(right, this.cellSize);
+		int maxY = CellIndex.getCell(top, this.cellSize);
+		int count = 0;
+		
+		for (int cellY = minY; cellY <= maxY; cellY++)
+		{
+			for (int cellX = minX; cellX <= maxX; cellX++)
+			{
+				CellIndex.Cell cell = this.index.getCell(cellX, cellY);
+				
+				if (cell != null)
+				{
+					for (int i = 0; i < cell.size; i++)
+					{
+						CellIndex.Entry entry = cell.entries[i];
+						
+						// an entry spanning several cells is only reported by the first one inside the query
+						if ((cellX == Math.max(entry.minX, minX)) && (cellY == Math.max(entry.minY, minY)))
+						{
+							if (count == this.results.length)
+							{
+								int[] newResults = new int[count * 2];
+								System.arraycopy(this.results, 0, newResults, 0, count);
+								this.results = newResults;
+							}
+							
+							this.results[count++] = entry.process.id;
+						}
+					}
+				}
+			}
+		}
+		
+		return count;
+	}
+	
+	public int[] getResults()
+	{
+		return this.results;
+	}
+}
\ No newline at end of file
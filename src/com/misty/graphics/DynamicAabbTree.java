@@ -0,0 +1,709 @@
+package com.misty.graphics;
+
+import java.util.List;
+import com.misty.kernel.Process;
+import com.misty.math.Rectangle;
+import com.misty.math.Utils;
+import com.misty.utils.LongMap;
+
+public class DynamicAabbTree implements Broadphase
+{
+	// nodes are stored in parallel arrays, free nodes are chained through their parent
+	private float[] left;
+	private float[] bottom;
+	private float[] right;
+	private float[] top;
+	private int[] parent;
+	private int[] child1;
+	private int[] child2;
+	private int[] height;
+	private Process[] processes;
+	private int capacity = 0;
+	private int root = DynamicAabbTree.NULL;
+	private int free = DynamicAabbTree.NULL;
+	
+	// process id -> leaf node
+	private final LongMap leaves = new LongMap(256);
+	private final float margin;
+	private int[] stack = new int[64];
+	private final NearestProcesses nearest = new NearestProcesses();
+	private final Rectangle bounds = new Rectangle(0, 0, 0, 0);
+	
+	private static final int NULL = -1;
+	
+	public static final float DEFAULT_MARGIN = 8;
+	
+	public DynamicAabbTree(float margin)
+	{
+		this.margin = margin;
+		grow(64);
+	}
+	
+	public DynamicAabbTree()
+	{
+		this(DynamicAabbTree.DEFAULT_MARGIN);
+	}
+	
+	public void clear()
+	{
+		for (int i = 0; i < this.capacity; i++)
+		{
+			this.processes[i] = null;
+		}
+		
+		this.leaves.clear();
+		this.root = DynamicAabbTree.NULL;
+		this.free = DynamicAabbTree.NULL;
+		
+		for (int i = this.capacity - 1; i >= 0; i--)
+		{
+			freeNode(i);
+		}
+	}
+	
+	public boolean contains(Process process)
+	{
+		return this.leaves.containsKey(process.id);
+	}
+	
+	public void updateProcess(Process process)
+	{
+		int leaf = this.leaves.get(process.id);
+		Rectangle bounds = process.getCollisionBounds(this.bounds);
+		
+		if (leaf == LongMap.MISSING)
+		{
+			leaf = allocateNode();
+			this.processes[leaf] = process;
+			setFatBounds(leaf, bounds);
+			this.leaves.put(process.id, leaf);
+			
+			insertLeaf(leaf);
+		}
+		else if ((bounds.x < this.left[leaf]) || (bounds.y < this.bottom[leaf]) || (bounds.getRight() > this.right[leaf]) || (bounds.getTop() > this.top[leaf]))
+		{
+			// the tree only changes when a process leaves its fat bounds
+			removeLeaf(leaf);
+			setFatBounds(leaf, bounds);
+			insertLeaf(leaf);
+		}
+	}
+	
+	public void removeProcess(Process process)
+	{
+		int leaf = this.leaves.get(process.id);
+		
+		if (leaf != LongMap.MISSING)
+		{
+			this.leaves.remove(process.id);
+			removeLeaf(leaf);
+			this.processes[leaf] = null;
+			freeNode(leaf);
+		}
+	}
+	
+	public void finishUpdate()
+	{
+	}
+	
+	public int getHeight()
+	{
+		return (this.root == DynamicAabbTree.NULL) ? 0 : this.height[this.root];
+	}
+	
+	// ========================= QUERIES ======================== \\
+	
+	public List<Process> getCollisions(Process process, List<Process> result, int mask)
+	{
+		result.clear();
+		
+		int filter = mask & process.collidesWith;
+		
+		if (filter == 0)
+		{
+			return result;
+		}
+		
+		Rectangle bounds = process.getCollisionBounds(this.bounds);
+		float left = bounds.x;
+		float bottom = bounds.y;
+		float right = bounds.getRight();
+		float top = bounds.getTop();
+		int size = push(0, this.root);
+		
+		while (size > 0)
+		{
+			int node = this.stack[--size];
+			
+			if (overlaps(node, left, bottom, right, top))
+			{
+				if (isLeaf(node))
+				{
+					Process currentProcess = this.processes[node];
+					
+					if ((currentProcess != process) && ((currentProcess.getCollisionCategory() & filter) != 0) && overlaps(currentProcess.getCollisionBounds(this.bounds), left, bottom, right, top))
+					{
+						if (Narrowphase.collide(process, currentProcess))
+						{
+							result.add(currentProcess);
+						}
+					}
+				}
+				else
+				{
+					size = push(size, this.child1[node]);
+					size = push(size, this.child2[node]);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	public void query(float left, float bottom, float right, float top, int mask, List<Process> result)
+	{
+		queryRange(left, bottom, right, top, 0, 0, -1, mask, result);
+	}
+	
+	public void queryPoint(float x, float y, int mask, List<Process> result)
+	{
+		queryRange(x, y, x, y, 0, 0, -1, mask, result);
+	}
+	
+	public void queryCircle(float x, float y, float radius, int mask, List<Process> result)
+	{
+		queryRange(x - radius, y - radius, x + radius, y + radius, x, y, radius * radius, mask, result);
+	}
+	
+	// the processes overlapping the box, and the circle when its squared radius is not negative
+	private void queryRange(float left, float bottom, float right, float top, float x, float y, float radiusSquared, int mask, List<Process> result)
+	{
+		int size = push(0, this.root);
+		
+		while (size > 0)
+		{
+			int node = this.stack[--size];
+			
+			if (overlaps(node, left, bottom, right, top))
+			{
+				if (isLeaf(node))
+				{
+					Process process = this.processes[node];
+					
+					if ((process.getCollisionCategory() & mask) != 0)
+					{
+						Rectangle bounds = process.getCollisionBounds(this.bounds);
+						
+						if (overlaps(bounds, left, bottom, right, top) && ((radiusSquared < 0) || (Utils.getDistanceSquared(bounds.x, bounds.y, bounds.getRight(), bounds.getTop(), x, y) <= radiusSquared)))
+						{
+							result.add(process);
+						}
+					}
+				}
+				else
+				{
+					size = push(size, this.child1[node]);
+					size = push(size, this.child2[node]);
+				}
+			}
+		}
+	}
+	
+	public void queryRay(float x1, float y1, float x2, float y2, int mask, List<Process> result)
+	{
+		int size = push(0, this.root);
+		
+		while (size > 0)
+		{
+			int node = this.stack[--size];
+			
+			if (Utils.intersectsSegment(this.left[node], this.bottom[node], this.right[node], this.top[node], x1, y1, x2, y2))
+			{
+				if (isLeaf(node))
+				{
+					Process process = this.processes[node];
+					
+					if ((process.getCollisionCategory() & mask) != 0)
+					{
+						Rectangle bounds = process.getCollisionBounds(this.bounds);
+						
+						if (Utils.intersectsSegment(bounds.x, bounds.y, bounds.getRight(), bounds.getTop(), x1, y1, x2, y2))
+						{
+							result.add(process);
+						}
+					}
+				}
+				else
+				{
+					size = push(size, this.child1[node]);
+					size = push(size, this.child2[node]);
+				}
+			}
+		}
+	}
+	
+	public Process raycast(float x1, float y1, float x2, float y2, int mask)
+	{
+		Process result = null;
+		float nearestHit = Float.MAX_VALUE;
+		int size = push(0, this.root);
+		
+		while (size > 0)
+		{
+			int node = this.stack[--size];
+			float hit = Utils.getSegmentHit(this.left[node], this.bottom[node], this.right[node], this.top[node], x1, y1, x2, y2);
+			
+			// nothing under a node entered after the nearest hit can be nearer
+			if ((hit >= 0) && (hit < nearestHit))
+			{
+				if (isLeaf(node))
+				{
+					Process process = this.processes[node];
+					
+					if ((process.getCollisionCategory() & mask) != 0)
+					{
+						Rectangle bounds = process.getCollisionBounds(this.bounds);
+						float processHit = Utils.getSegmentHit(bounds.x, bounds.y, bounds.getRight(), bounds.getTop(), x1, y1, x2, y2);
+						
+						if ((processHit >= 0) && (processHit < nearestHit))
+						{
+							nearestHit = processHit;
+							result = process;
+						}
+					}
+				}
+				else
+				{
+					size = push(size, this.child1[node]);
+					size = push(size, this.child2[node]);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	public void queryNearest(float x, float y, int count, float maxDistance, int mask, List<Process> result)
+	{
+		this.nearest.reset(count, maxDistance);
+		
+		int size = (count > 0) ? push(0, this.root) : 0;
+		
+		while (size > 0)
+		{
+			int node = this.stack[--size];
+			
+			// nodes farther than the current last of the nearest are skipped with everything under them
+			if (getDistanceSquared(node, x, y) <= this.nearest.getLimit())
+			{
+				if (isLeaf(node))
+				{
+					Process process = this.processes[node];
+					
+					if ((process.getCollisionCategory() & mask) != 0)
+					{
+						Rectangle bounds = process.getCollisionBounds(this.bounds);
+						this.nearest.offer(process, Utils.getDistanceSquared(bounds.x, bounds.y, bounds.getRight(), bounds.getTop(), x, y));
+					}
+				}
+				else
+				{
+					int nearChild = this.child1[node];
+					int farChild = this.child2[node];
+					
+					if (getDistanceSquared(farChild, x, y) < getDistanceSquared(nearChild, x, y))
+					{
+						nearChild = this.child2[node];
+						farChild = this.child1[node];
+					}
+					
+					// the nearer child is searched first and tightens the limit for the other one
+					size = push(size, farChild);
+					size = push(size, nearChild);
+				}
+			}
+		}
+		
+		this.nearest.addTo(result);
+	}
+	
+	private float getDistanceSquared(int node, float x, float y)
+	{
+		return Utils.getDistanceSquared(this.left[node], this.bottom[node], this.right[node], this.top[node], x, y);
+	}
+	
+	private int push(int size, int node)
+	{
+		if (node == DynamicAabbTree.NULL)
+		{
+			return size;
+		}
+		
+		if (size == this.stack.length)
+		{
+			int[] newStack = new int[size * 2];
+			System.arraycopy(this.stack, 0, newStack, 0, size);
+			this.stack = newStack;
+		}
+		
+		this.stack[size] = node;
+		
+		return size + 1;
+	}
+	
+	private boolean overlaps(int node, float left, float bottom, float right, float top)
+	{
+		return (this.left[node] <= right) && (this.right[node] >= left) && (this.bottom[node] <= top) && (this.top[node] >= bottom);
+	}
+	
+	// the leaves are fattened, a process is tested with the same transformed box it was inserted with
+	private static boolean overlaps(Rectangle bounds, float left, float bottom, float right, float top)
+	{
+		return (bounds.x <= right) && (bounds.getRight() >= left) && (bounds.y <= top) && (bounds.getTop() >= bottom);
+	}
+	
+	// ========================= NODES ======================== \\
+	
+	private boolean isLeaf(int node)
+	{
+		return (this.child1[node] == DynamicAabbTree.NULL);
+	}
+	
+	private void setFatBounds(int node, Rectangle bounds)
+	{
+		this.left[node] = bounds.x - this.margin;
+		this.bottom[node] = bounds.y - this.margin;
+		this.right[node] = bounds.getRight() + this.margin;
+		this.top[node] = bounds.getTop() + this.margin;
+	}
+	
+	private void setUnion(int node, int nodeA, int nodeB)
+	{
+		this.left[node] = Math.min(this.left[nodeA], this.left[nodeB]);
+		this.bottom[node] = Math.min(this.bottom[nodeA], this.bottom[nodeB]);
+		this.right[node] = Math.max(this.right[nodeA], this.right[nodeB]);
+		this.top[node] = Math.max(this.top[nodeA], this.top[nodeB]);
+	}
+	
+	private float getPerimeter(int node)
+	{
+		return 2 * ((this.right[node] - this.left[node]) + (this.top[node] - this.bottom[node]));
+	}
+	
+	private float getUnionPerimeter(int nodeA, int nodeB)
+	{
+		float width = Math.max(this.right[nodeA], this.right[nodeB]) - Math.min(this.left[nodeA], this.left[nodeB]);
+		float height = Math.max(this.top[nodeA], this.top[nodeB]) - Math.min(this.bottom[nodeA], this.bottom[nodeB]);
+		
+		return 2 * (width + height);
+	}
+	
+	private int allocateNode()
+	{
+		if (this.free == DynamicAabbTree.NULL)
+		{
+			grow(this.capacity * 2);
+		}
+		
+		int node = this.free;
+		this.free = this.parent[node];
+		this.parent[node] = DynamicAabbTree.NULL;
+		this.child1[node] = DynamicAabbTree.NULL;
+		this.child2[node] = DynamicAabbTree.NULL;
+		this.height[node] = 0;
+		
+		return node;
+	}
+	
+	private void freeNode(int node)
+	{
+		this.parent[node] = this.free;
+		this.height[node] = -1;
+		this.free = node;
+	}
+	
+	private void grow(int newCapacity)
+	{
+		int oldCapacity = this.capacity;
+		
+		this.left = DynamicAabbTree.copy(this.left, newCapacity);
+		this.bottom = DynamicAabbTree.copy(this.bottom, newCapacity);
+		this.right = DynamicAabbTree.copy(this.right, newCapacity);
+		this.top = DynamicAabbTree.copy(this.top, newCapacity);
+		this.parent = DynamicAabbTree.copy(this.parent, newCapacity);
+		this.child1 = DynamicAabbTree.copy(this.child1, newCapacity);
+		this.child2 = DynamicAabbTree.copy(this.child2, newCapacity);
+		this.height = DynamicAabbTree.copy(this.height, newCapacity);
+		
+		Process[] newProcesses = new Process[newCapacity];
+		
+		if (this.processes != null)
+		{
+			System.arraycopy(this.processes, 0, newProcesses, 0, oldCapacity);
+		}
+		
+		this.processes = newProcesses;
+		this.capacity = newCapacity;
+		
+		for (int i = newCapacity - 1; i >= oldCapacity; i--)
+		{
+			freeNode(i);
+		}
+	}
+	
+	private static float[] copy(float[] array, int length)
+	{
+		float[] result = new float[length];
+		
+		if (array != null)
+		{
+			System.arraycopy(array, 0, result, 0, array.length);
+		}
+		
+		return result;
+	}
+	
+	private static int[] copy(int[] array, int length)
+	{
+		int[] result = new int[length];
+		
+		if (array != null)
+		{
+			System.arraycopy(array, 0, result, 0, array.length);
+		}
+		
+		return result;
+	}
+	
+	// ========================= STRUCTURE ======================== \\
+	
+	private void insertLeaf(int leaf)
+	{
+		if (this.root == DynamicAabbTree.NULL)
+		{
+			this.root = leaf;
+			this.parent[leaf] = DynamicAabbTree.NULL;
+			
+			return;
+		}
+		
+		// walks down to the sibling that grows the total perimeter the least
+		int index = this.root;
+		
+		while (!isLeaf(index))
+		{
+			int childA = this.child1[index];
+			int childB = this.child2[index];
+			
+			float perimeter = getPerimeter(index);
+			float combinedPerimeter = getUnionPerimeter(index, leaf);
+			
+			// a new parent here, or the cost pushed down to the children
+			float cost = 2 * combinedPerimeter;
+			float inheritanceCost = 2 * (combinedPerimeter - perimeter);
+			float costA = getDescendCost(childA, leaf) + inheritanceCost;
+			float costB = getDescendCost(childB, leaf) + inheritanceCost;
+			
+			if ((cost < costA) && (cost < costB))
+			{
+				break;
+			}
+			
+			index = (costA < costB) ? childA : childB;
+		}
+		
+		int sibling = index;
+		int oldParent = this.parent[sibling];
+		int newParent = allocateNode();
+		this.parent[newParent] = oldParent;
+		setUnion(newParent, leaf, sibling);
+		this.height[newParent] = this.height[sibling] + 1;
+		
+		if (oldParent != DynamicAabbTree.NULL)
+		{
+			if (this.child1[oldParent] == sibling)
+			{
+				this.child1[oldParent] = newParent;
+			}
+			else
+			{
+				this.child2[oldParent] = newParent;
+			}
+		}
+		else
+		{
+			this.root = newParent;
+		}
+		
+		this.child1[newParent] = sibling;
+		this.child2[newParent] = leaf;
+		this.parent[sibling] = newParent;
+		this.parent[leaf] = newParent;
+		
+		refit(this.parent[leaf]);
+	}
+	
+	private float getDescendCost(int child, int leaf)
+	{
+		float result = getUnionPerimeter(child, leaf);
+		
+		if (!isLeaf(child))
+		{
+			result -= getPerimeter(child);
+		}
+		
+		return result;
+	}
+	
+	private void removeLeaf(int leaf)
+	{
+		if (leaf == this.root)
+		{
+			this.root = DynamicAabbTree.NULL;
+			
+			return;
+		}
+		
+		int oldParent = this.parent[leaf];
+		int grandParent = this.parent[oldParent];
+		int sibling = (this.child1[oldParent] == leaf) ? this.child2[oldParent] : this.child1[oldParent];
+		
+		if (grandParent != DynamicAabbTree.NULL)
+		{
+			// the sibling takes the place of the parent
+			if (this.child1[grandParent] == oldParent)
+			{
+				this.child1[grandParent] = sibling;
+			}
+			else
+			{
+				this.child2[grandParent] = sibling;
+			}
+			
+			this.parent[sibling] = grandParent;
+			freeNode(oldParent);
+			
+			refit(grandParent);
+		}
+		else
+		{
+			this.root = sibling;
+			this.parent[sibling] = DynamicAabbTree.NULL;
+			freeNode(oldParent);
+		}
+		
+		this.parent[leaf] = DynamicAabbTree.NULL;
+	}
+	
+	// rebalances and refits every node from the given one up to the root
+	private void refit(int node)
+	{
+		int index = node;
+		
+		while (index != DynamicAabbTree.NULL)
+		{
+			index = balance(index);
+			
+			int childA = this.child1[index];
+			int childB = this.child2[index];
+			
+			this.height[index] = 1 + Math.max(this.height[childA], this.height[childB]);
+			setUnion(index, childA, childB);
+			
+			index = this.parent[index];
+		}
+	}
+	
+	// rotates the taller grandchild up when the children heights differ by more than one, returns the node now in place of a
+	private int balance(int a)
+	{
+		if (isLeaf(a) || (this.height[a] < 2))
+		{
+			return a;
+		}
+		
+		int b = this.child1[a];
+		int c = this.child2[a];
+		int difference = this.height[c] - this.height[b];
+		
+		if (difference > 1)
+		{
+			int f = this.child1[c];
+			int g = this.child2[c];
+			
+			this.child1[c] = a;
+			this.parent[c] = this.parent[a];
+			this.parent[a] = c;
+			replaceChild(this.parent[c], a, c);
+			
+			if (this.height[f] > this.height[g])
+			{
+				this.child2[c] = f;
+				this.child2[a] = g;
+				this.parent[g] = a;
+			}
+			else
+			{
+				this.child2[c] = g;
+				this.child2[a] = f;
+				this.parent[f] = a;
+			}
+			
+			setUnion(a, b, this.child2[a]);
+			setUnion(c, a, this.child2[c]);
+			this.height[a] = 1 + Math.max(this.height[b], this.height[this.child2[a]]);
+			this.height[c] = 1 + Math.max(this.height[a], this.height[this.child2[c]]);
+			
+			return c;
+		}
+		
+		if (difference < -1)
+		{
+			int d = this.child1[b];
+			int e = this.child2[b];
+			
+			this.child1[b] = a;
+			this.parent[b] = this.parent[a];
+			this.parent[a] = b;
+			replaceChild(this.parent[b], a, b);
+			
+			if (this.height[d] > this.height[e])
+			{
+				this.child2[b] = d;
+				this.child1[a] = e;
+				this.parent[e] = a;
+			}
+			else
+			{
+				this.child2[b] = e;
+				this.child1[a] = d;
+				this.parent[d] = a;
+			}
+			
+			setUnion(a, c, this.child1[a]);
+			setUnion(b, a, this.child2[b]);
+			this.height[a] = 1 + Math.max(this.height[c], this.height[this.child1[a]]);
+			this.height[b] = 1 + Math.max(this.height[a], this.height[this.child2[b]]);
+			
+			return b;
+		}
+		
+		return a;
+	}
+	
+	private void replaceChild(int node, int oldChild, int newChild)
+	{
+		if (node == DynamicAabbTree.NULL)
+		{
+			this.root = newChild;
+		}
+		else if (this.child1[node] == oldChild)
+		{
+			this.child1[node] = newChild;
+		}
+		else
+		{
+			this.child2[node] = newChild;
+		}
+	}
+}
\ No newline at end of file
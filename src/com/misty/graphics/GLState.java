@@ -0,0 +1,335 @@
+package com.misty.graphics;
+
+import android.opengl.GLES20;
+
+public class GLState
+{
+	private static final int UNKNOWN = -1;
+	private static final int MAX_TEXTURE_UNITS = 8;
+	private static final int MAX_ATTRIBUTES = 16;
+	private static final int MAX_UNIFORMS = 64;
+	
+	// shadowed state
+	private int program;
+	private int activeTexture;
+	private final int[] boundTextures = new int[GLState.MAX_TEXTURE_UNITS];
+	private int arrayBuffer;
+	private int elementArrayBuffer;
+	private int blendSource;
+	private int blendDestination;
+	private int enabledAttributes;
+	private final int[] attributeBuffers = new int[GLState.MAX_ATTRIBUTES];
+	private final int[] attributeSizes = new int[GLState.MAX_ATTRIBUTES];
+	private final int[] attributeStrides = new int[GLState.MAX_ATTRIBUTES];
+	private final int[] attributeOffsets = new int[GLState.MAX_ATTRIBUTES];
+	private final boolean[] knownUniforms = new boolean[GLState.MAX_UNIFORMS];
+	private final int[] uniformInts = new int[GLState.MAX_UNIFORMS];
+	private final float[][] uniformMatrices = new float[GLState.MAX_UNIFORMS][];
+	
+	// statistics
+	private int issued = 0;
+	private int skipped = 0;
+	private int lastIssued = 0;
+	private int lastSkipped = 0;
+	
+	public GLState()
+	{
+		invalidate();
+	}
+	
+	public void invalidate()
+	{
+		this.program = GLState.UNKNOWN;
+		this.activeTexture = GLState.UNKNOWN;
+		this.arrayBuffer = GLState.UNKNOWN;
+		this.elementArrayBuffer = GLState.UNKNOWN;
+		this.blendSource = GLState.UNKNOWN;
+		this.blendDestination = GLState.UNKNOWN;
+		this.enabledAttributes = 0;
+		
+		invalidateTextures();
+		
+		for (int i = 0; i < GLState.MAX_ATTRIBUTES; i++)
+		{
+			this.attributeBuffers[i] = GLState.UNKNOWN;
+		}
+		
+		for (int i = 0; i < GLState.MAX_UNIFORMS; i++)
+		{
+			this.knownUniforms[i] = false;
+		}
+	}
+	
+	public void invalidateBuffers()
+	{
+		this.arrayBuffer = GLState.UNKNOWN;
+		this.elementArrayBuffer = GLState.UNKNOWN;
+	}
+	
+	public void invalidateTextures()
+	{
+		for (int i = 0; i < GLState.MAX_TEXTURE_UNITS; i++)
+		{
+			this.boundTextures[i] = GLState.UNKNOWN;
+		}
+		
+		this.activeTexture = GLState.UNKNOWN;
+	}
+	
+	public void beginFrame()
+	{
+		// textures may have been uploaded between frames without going through the cache
+		invalidateTextures();
+	}
+	
+	public void endFrame()
+	{
+		// the counters run from one frame to the next, so the passes drawn before a frame are part of it
+		this.lastIssued = this.issued;
+		this.lastSkipped = this.skipped;
+		this.issued = 0;
+		this.skipped = 0;
+	}
+	
+	public int getIssuedCalls()
+	{
+		return this.lastIssued;
+	}
+	
+	public int getSkippedCalls()
+	{
+		return this.lastSkipped;
+	}
+	
+	public void useProgram(int program)
+	{
+		if (program != this.program)
+		{
+			GLES20.glUseProgram(program);
+			this.program = program;
+			
+			// uniform values belong to the program
+			for (int i = 0; i < GLState.MAX_UNIFORMS; i++)
+			{
+				this.knownUniforms[i] = false;
+			}
+			
+			this.issued++;
+		}
+		else
+		{
+			this.skipped++;
+		}
+	}
+	
+	public void bindTexture(int unit, int textureId)
+	{
+		if ((unit < 0) || (unit >= GLState.MAX_TEXTURE_UNITS) || (this.boundTextures[unit] != textureId))
+		{
+			activeTexture(unit);
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+			
+			if ((unit >= 0) && (unit < GLState.MAX_TEXTURE_UNITS))
+			{
+				this.boundTextures[unit] = textureId;
+			}
+			
+			this.issued++;
+		}
+		else
+		{
+			this.skipped++;
+		}
+	}
+	
+	private void activeTexture(int unit)
+	{
+		if (unit != this.activeTexture)
+		{
+			GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+			this.activeTexture = unit;
+			this.issued++;
+		}
+		else
+		{
+			this.skipped++;
+		}
+	}
+	
+	public void bindBuffer(int target, int bufferId)
+	{
+		if (target == GLES20.GL_ARRAY_BUFFER)
+		{
+			if (bufferId != this.arrayBuffer)
+			{
+				GLES20.glBindBuffer(target, bufferId);
+				this.arrayBuffer = bufferId;
+				this.issued++;
+			}
+			else
+			{
+				this.skipped++;
+			}
+		}
+		else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER)
+		{
+			if (bufferId != this.elementArrayBuffer)
+			{
+				GLES20.glBindBuffer(target, bufferId);
+				this.elementArrayBuffer = bufferId;
+				this.issued++;
+			}
+			else
+			{
+				this.skipped++;
+			}
+		}
+		else
+		{
+			GLES20.glBindBuffer(target, bufferId);
+			this.issued++;
+		}
+	}
+	
+	public void blendFunc(int source, int destination)
+	{
+		if ((source != this.blendSource) || (destination != this.blendDestination))
+		{
+			GLES20.glBlendFunc(source, destination);
+			this.blendSource = source;
+			this.blendDestination = destination;
+			this.issued++;
+		}
+		else
+		{
+			this.skipped++;
+		}
+	}
+	
+	public void enableVertexAttribArray(int location)
+	{
+		if ((location < 0) || (location >= GLState.MAX_ATTRIBUTES) || ((this.enabledAttributes & (1 << location)) == 0))
+		{
+			GLES20.glEnableVertexAttribArray(location);
+			
+			if ((location >= 0) && (location < GLState.MAX_ATTRIBUTES))
+			{
+				this.enabledAttributes |= (1 << location);
+			}
+			
+			this.issued++;
+		}
+		else
+		{
+			this.skipped++;
+		}
+	}
+	
+	public void disableVertexAttribArray(int location)
+	{
+		if ((location < 0) || (location >= GLState.MAX_ATTRIBUTES) || ((this.enabledAttributes & (1 << location)) != 0))
+		{
+			GLES20.glDisableVertexAttribArray(location);
+			
+			if ((location >= 0) && (location < GLState.MAX_ATTRIBUTES))
+			{
+				this.enabledAttributes &= ~(1 << location);
+			}
+			
+			this.issued++;
+		}
+		else
+		{
+			this.skipped++;
+		}
+	}
+	
+	public void vertexAttribPointer(int location, int size, int stride, int offset)
+	{
+		// the pointer is captured from the array buffer bound at call time
+		if ((location < 0) || (location >= GLState.MAX_ATTRIBUTES) || (this.arrayBuffer == GLState.UNKNOWN) || (this.attributeBuffers[location] != this.arrayBuffer) || (this.attributeSizes[location] != size) || (this.attributeStrides[location] != stride) || (this.attributeOffsets[location] != offset))
+		{
+			GLES20.glVertexAttribPointer(location, size, GLES20.GL_FLOAT, false, stride, offset);
+			
+			if ((location >= 0) && (location < GLState.MAX_ATTRIBUTES))
+			{
+				this.attributeBuffers[location] = this.arrayBuffer;
+				this.attributeSizes[location] = size;
+				this.attributeStrides[location] = stride;
+				this.attributeOffsets[location] = offset;
+			}
+			
+			this.issued++;
+		}
+		else
+		{
+			this.skipped++;
+		}
+	}
+	
+	public void uniform1i(int location, int value)
+	{
+		if ((location < 0) || (location >= GLState.MAX_UNIFORMS) || (!this.knownUniforms[location]) || (this.uniformInts[location] != value))
+		{
+			GLES20.glUniform1i(location, value);
+			
+			if ((location >= 0) && (location < GLState.MAX_UNIFORMS))
+			{
+				this.knownUniforms[location] = true;
+				this.uniformInts[location] = value;
+			}
+			
+			this.issued++;
+		}
+		else
+		{
+			this.skipped++;
+		}
+	}
+	
+	public void uniformMatrix4fv(int location, float[] matrix)
+	{
+		if ((location < 0) || (location >= GLState.MAX_UNIFORMS) || (!this.knownUniforms[location]) || (!sameMatrix(this.uniformMatrices[location], matrix)))
+		{
+			GLES20.glUniformMatrix4fv(location, 1, false, matrix, 0);
+			
+			if ((location >= 0) && (location < GLState.MAX_UNIFORMS))
+			{
+				float[] cached = this.uniformMatrices[location];
+				
+				if (cached == null)
+				{
+					cached = new float[16];
+					this.uniformMatrices[location] = cached;
+				}
+				
+				System.arraycopy(matrix, 0, cached, 0, 16);
+				this.knownUniforms[location] = true;
+			}
+			
+			this.issued++;
+		}
+		else
+		{
+			this.skipped++;
+		}
+	}
+	
+	private boolean sameMatrix(float[] cached, float[] matrix)
+	{
+		if (cached == null)
+		{
+			return false;
+		}
+		
+		for (int i = 0; i < 16; i++)
+		{
+			if (cached[i] != matrix[i])
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,311 @@
+package com.misty.graphics;
+
+import com.misty.graphics.textures.CollisionMask;
+import com.misty.graphics.textures.ConvexHull;
+import com.misty.graphics.textures.Texture;
+import com.misty.graphics.textures.TextureManager;
+import com.misty.kernel.Process;
+import com.misty.math.Rectangle;
+
+public class Narrowphase
+{
+	// the candidates may be tested on several threads, each one keeps its own bodies
+	private static final ThreadLocal<Body[]> bodies = new ThreadLocal<Body[]>()
+	{
+		@Override
+		protected Body[] initialValue()
+		{
+			return new Body[] { new Body(), new Body() };
+		}
+	};
+	
+	private static final float DEGREES_TO_RADIANS = (float)(Math.PI / 180);
+	
+	public static boolean collide(Process processA, Process processB)
+	{
+		if ((!processA.visible) || (!processB.visible) || (processA.texture == null) || (processB.texture == null))
+		{
+			return false;
+		}
+		
+		CollisionShape shapeA = processA.collisionShape;
+		CollisionShape shapeB = processB.collisionShape;
+		
+		// the masks only line up while neither sprite is transformed, otherwise their hulls stand in for them
+		if ((shapeA == CollisionShape.PIXELS) && (shapeB == CollisionShape.PIXELS) && (!Narrowphase.isTransformed(processA)) && (!Narrowphase.isTransformed(processB)))
+		{
+			return Narrowphase.collidePixels(processA, processB);
+		}
+		
+		Body[] bodies = Narrowphase.bodies.get();
+		Body bodyA = bodies[0];
+		Body bodyB = bodies[1];
+		
+		if ((!bodyA.set(processA, shapeA)) || (!bodyB.set(processB, shapeB)))
+		{
+			return false;
+		}
+		
+		if (bodyA.isCircle() && bodyB.isCircle())
+		{
+			float distanceX = bodyB.circleX - bodyA.circleX;
+			float distanceY = bodyB.circleY - bodyA.circleY;
+			float radius = bodyA.radius + bodyB.radius;
+			
+			return ((distanceX * distanceX) + (distanceY * distanceY)) < (radius * radius);
+		}
+		else if (bodyA.isCircle())
+		{
+			return Narrowphase.collideCircle(bodyA, bodyB);
+		}
+		else if (bodyB.isCircle())
+		{
+			return Narrowphase.collideCircle(bodyB, bodyA);
+		}
+		
+		return (!Narrowphase.separates(bodyA, bodyA, bodyB)) && (!Narrowphase.separates(bodyB, bodyA, bodyB));
+	}
+	
+	public static boolean isTransformed(Process process)
+	{
+		return (process.angle != 0) || (process.scaleX != 1) || (process.scaleY != 1) || (process.orientationHorizontal != 1) || (process.orientationVertical != 1);
+	}
+	
+	private static boolean collidePixels(Process processA, Process processB)
+	{
+		boolean result = false;
+		
+		Texture textureA = processA.texture;
+		Texture textureB = processB.texture;
+		
+		int xA = (int)processA.x;
+		int yA = (int)processA.y;
+		
+		int xB = (int)processB.x;
+		int yB = (int)processB.y;
+		
+		int left = Math.max(xA, xB);
+		int bottom = Math.max(yA, yB);
+		int right = Math.min(xA + textureA.width, xB + textureB.width);
+		int top = Math.min(yA + textureA.height, yB + textureB.height);
+		
+		if ((left < right) && (bottom < top))
+		{
+			CollisionMask maskA = textureA.getCollisionMask();
+			CollisionMask maskB = textureB.getCollisionMask();
+			
+			// masks are built in the background, until then there is no collision data
+			if ((maskA == null) || (maskB == null))
+			{
+				// a released mask is built again for the processes still using it
+				Narrowphase.requestCollisionMask(textureA, maskA);
+				Narrowphase.requestCollisionMask(textureB, maskB);
+				
+				return false;
+			}
+			
+			// the mask rows start at the top of the sprite, the area is walked down from its top row
+			result = maskA.overlaps(left - xA, textureA.height - (top - yA), maskB, left - xB, textureB.height - (top - yB), right - left, top - bottom);
+		}
+		
+		return result;
+	}
+	
+	private static void requestCollisionMask(Texture texture, CollisionMask mask)
+	{
+		// only the first request of a texture queues a build
+		if (mask == null)
+		{
+			TextureManager.requestCollisionMask(texture);
+		}
+	}
+	
+	// ========================= SEPARATING AXES ======================== \\
+	
+	// whether a normal of the edges of the owner keeps both bodies apart, touching bodies do not collide
+	private static boolean separates(Body owner, Body bodyA, Body bodyB)
+	{
+		ConvexHull hull = owner.hull;
+		
+		for (int i = 0; i < hull.size; i++)
+		{
+			int next = ((i + 1) == hull.size) ? 0 : (i + 1);
+			float edgeX = (hull.x[next] - hull.x[i]) * owner.axisX;
+			float edgeY = (hull.y[next] - hull.y[i]) * owner.axisY;
+			float worldX = (edgeX * owner.cos) - (edgeY * owner.sin);
+			float worldY = (edgeX * owner.sin) + (edgeY * owner.cos);
+			
+			bodyA.project(worldY, -worldX);
+			bodyB.project(worldY, -worldX);
+			
+			if ((bodyA.max <= bodyB.min) || (bodyB.max <= bodyA.min))
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private static boolean collideCircle(Body circle, Body polygon)
+	{
+		if (Narrowphase.separates(polygon, circle, polygon))
+		{
+			return false;
+		}
+		
+		// past the edges, only the axis towards the nearest vertex is left
+		ConvexHull hull = polygon.hull;
+		float axisX = 0;
+		float axisY = 0;
+		float nearest = Float.MAX_VALUE;
+		
+		for (int i = 0; i < hull.size; i++)
+		{
+			float distanceX = polygon.getWorldX(hull.x[i], hull.y[i]) - circle.circleX;
+			float distanceY = polygon.getWorldY(hull.x[i], hull.y[i]) - circle.circleY;
+			float distance = (distanceX * distanceX) + (distanceY * distanceY);
+			
+			if (distance < nearest)
+			{
+				nearest = distance;
+				axisX = distanceX;
+				axisY = distanceY;
+			}
+		}
+		
+		if (nearest == 0)
+		{
+			return true;
+		}
+		
+		circle.project(axisX, axisY);
+		polygon.project(axisX, axisY);
+		
+		return (circle.max > polygon.min) && (polygon.max > circle.min);
+	}
+	
+	// a shape of a process placed as the sprite is drawn: scaled, flipped and rotated around the center of its texture
+	private static class Body
+	{
+		public ConvexHull hull;
+		public float centerX;
+		public float centerY;
+		public float axisX;
+		public float axisY;
+		public float cos;
+		public float sin;
+		
+		// circles have no hull
+		public float circleX;
+		public float circleY;
+		public float radius;
+		
+		// the last projection
+		public float min;
+		public float max;
+		
+		public boolean set(Process process, CollisionShape shape)
+		{
+			Texture texture = process.texture;
+			
+			this.centerX = process.x + (texture.width / 2f);
+			this.centerY = process.y + (texture.height / 2f);
+			this.axisX = process.scaleX * process.orientationHorizontal;
+			this.axisY = process.scaleY * process.orientationVertical;
+			
+			if (process.angle == 0)
+			{
+				this.cos = 1;
+				this.sin = 0;
+			}
+			else
+			{
+				float radians = process.angle * Narrowphase.DEGREES_TO_RADIANS;
+				this.cos = (float)Math.cos(radians);
+				this.sin = (float)Math.sin(radians);
+			}
+			
+			if (shape == CollisionShape.CIRCLE)
+			{
+				Rectangle bounds = texture.bounds;
+				
+				if ((bounds.width <= 0) || (bounds.height <= 0))
+				{
+					return false;
+				}
+				
+				float localX = (bounds.x + (bounds.width / 2)) - (texture.width / 2f);
+				float localY = (bounds.y + (bounds.height / 2)) - (texture.height / 2f);
+				
+				this.hull = null;
+				this.circleX = getWorldX(localX, localY);
+				this.circleY = getWorldY(localX, localY);
+				this.radius = (Math.max(bounds.width, bounds.height) / 2) * Math.max(Math.abs(this.axisX), Math.abs(this.axisY));
+				
+				return true;
+			}
+			
+			// the hull of a texture whose mask is still being built is not known yet
+			this.hull = (shape == CollisionShape.BOX) ? texture.getBox() : texture.getHull();
+			
+			return (this.hull != null) && (this.hull.size > 0);
+		}
+		
+		public boolean isCircle()
+		{
+			return (this.hull == null);
+		}
+		
+		public float getWorldX(float x, float y)
+		{
+			return this.centerX + (((x * this.axisX) * this.cos) - ((y * this.axisY) * this.sin));
+		}
+		
+		public float getWorldY(float x, float y)
+		{
+			return this.centerY + (((x * this.axisX) * this.sin) + ((y * this.axisY) * this.cos));
+		}
+		
+		public void project(float normalX, float normalY)
+		{
+			float offset = (this.centerX * normalX) + (this.centerY * normalY);
+			
+			if (this.hull == null)
+			{
+				float center = (this.circleX * normalX) + (this.circleY * normalY);
+				float extent = this.radius * (float)Math.sqrt((normalX * normalX) + (normalY * normalY));
+				
+				this.min = center - extent;
+				this.max = center + extent;
+				
+				return;
+			}
+			
+			// the normal is brought into the space of the hull instead of moving every vertex out of it
+			float localX = ((normalX * this.cos) + (normalY * this.sin)) * this.axisX;
+			float localY = ((normalY * this.cos) - (normalX * this.sin)) * this.axisY;
+			ConvexHull hull = this.hull;
+			float min = Float.MAX_VALUE;
+			float max = -Float.MAX_VALUE;
+			
+			for (int i = 0; i < hull.size; i++)
+			{
+				float value = (hull.x[i] * localX) + (hull.y[i] * localY);
+				
+				if (value < min)
+				{
+					min = value;
+				}
+				
+				if (value > max)
+				{
+					max = value;
+				}
+			}
+			
+			this.min = offset + min;
+			this.max = offset + max;
+		}
+	}
+}
\ No newline at end of file
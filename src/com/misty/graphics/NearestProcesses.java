@@ -0,0 +1,74 @@
+package com.misty.graphics;
+
+import java.util.List;
+import com.misty.kernel.Process;
+
+class NearestProcesses
+{
+	// the closest processes found so far, nearest first
+	private Process[] processes = new Process[8];
+	private float[] distances = new float[8];
+	private int size = 0;
+	private int count = 0;
+	private float maxDistanceSquared = Float.POSITIVE_INFINITY;
+	
+	// a max distance of 0 or less is no limit
+	public void reset(int count, float maxDistance)
+	{
+		this.size = 0;
+		this.count = Math.max(count, 0);
+		this.maxDistanceSquared = (maxDistance > 0) ? (maxDistance * maxDistance) : Float.POSITIVE_INFINITY;
+		
+		if (this.processes.length < this.count)
+		{
+			this.processes = new Process[this.count];
+			this.distances = new float[this.count];
+		}
+	}
+	
+	// processes farther than this are not kept
+	public float getLimit()
+	{
+		return (this.size == this.count) ? this.distances[this.size - 1] : this.maxDistanceSquared;
+	}
+	
+	public void offer(Process process, float distanceSquared)
+	{
+		if ((this.count == 0) || (distanceSquared > getLimit()))
+		{
+			return;
+		}
+		
+		// a process found in several cells is only kept once
+		for (int i = 0; i < this.size; i++)
+		{
+			if (this.processes[i] == process)
+			{
+				return;
+			}
+		}
+		
+		int i = (this.size == this.count) ? (this.size - 1) : this.size++;
+		
+		while ((i > 0) && (this.distances[i - 1] > distanceSquared))
+		{
+			this.processes[i] = this.processes[i - 1];
+			this.distances[i] = this.distances[i - 1];
+			i--;
+		}
+		
+		this.processes[i] = process;
+		this.distances[i] = distanceSquared;
+	}
+	
+	public void addTo(List<Process> result)
+	{
+		for (int i = 0; i < this.size; i++)
+		{
+			result.add(this.processes[i]);
+			this.processes[i] = null;
+		}
+		
+		this.size = 0;
+	}
+}
\ No newline at end of file
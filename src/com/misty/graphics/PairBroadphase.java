@@ -0,0 +1,18 @@
+package com.misty.graphics;
+
+import com.misty.kernel.Process;
+import com.misty.utils.WorkerPool;
+
+// a broadphase whose update finds every colliding pair at once, the engine reads its pairs instead of querying each process
+public interface PairBroadphase extends Broadphase
+{
+	// the pass over the pairs may be spread over the pool, null runs everything on the calling thread
+	public void setWorkerPool(WorkerPool workers);
+	
+	// the colliding pairs found by finishUpdate
+	public int getPairCount();
+	
+	public Process getPairA(int index);
+	
+	public Process getPairB(int index);
+}
\ No newline at end of file
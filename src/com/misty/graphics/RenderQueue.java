@@ -0,0 +1,362 @@
+package com.misty.graphics;
+
+import com.misty.graphics.textures.Texture;
+import com.misty.graphics.textures.TexturePage;
+
+public class RenderQueue
+{
+	private int size = 0;
+	private int capacity;
+	public final Camera camera = new Camera();
+	private final Camera interpolatedCamera = new Camera();
+	
+	// timestep
+	public float tickInterval = 0;
+	public long time = 0;
+	
+	// entries
+	private Texture[] textures;
+	private TileMap[] tileMaps;
+	private float[] previousX;
+	private float[] previousY;
+	private float[] previousAngle;
+	private float[] x;
+	private float[] y;
+	private float[] scaleX;
+	private float[] scaleY;
+	private float[] angle;
+	private float[] orientationHorizontal;
+	private float[] orientationVertical;
+	
+	// sorting
+	private long[] keys;
+	private long[] keysBuffer;
+	private int[] order;
+	private int[] orderBuffer;
+	private final int[] histograms = new int[RenderQueue.KEY_BYTES * RenderQueue.RADIX];
+	
+	private static final int RADIX = 256;
+	private static final int KEY_BYTES = 8;
+	private static final int TEXTURE_BITS = 12;
+	private static final int ORDER_BITS = 20;
+	private static final long TEXTURE_MASK = (1L << RenderQueue.TEXTURE_BITS) - 1;
+	private static final long ORDER_MASK = (1L << RenderQueue.ORDER_BITS) - 1;
+	
+	public static final int DEFAULT_CAPACITY = 256;
+	
+	public RenderQueue(int capacity)
+	{
+		allocate(Math.max(capacity, 1));
+	}
+	
+	public RenderQueue()
+	{
+		this(RenderQueue.DEFAULT_CAPACITY);
+	}
+	
+	private void allocate(int newCapacity)
+	{
+		this.textures = copy(this.textures, new Texture[newCapacity]);
+		this.tileMaps = copy(this.tileMaps, new TileMap[newCapacity]);
+		this.previousX = copy(this.previousX, new float[newCapacity]);
+		this.previousY = copy(this.previousY, new float[newCapacity]);
+		this.previousAngle = copy(this.previousAngle, new float[newCapacity]);
+		this.x = copy(this.x, new float[newCapacity]);
+		this.y = copy(this.y, new float[newCapacity]);
+		this.scaleX = copy(this.scaleX, new float[newCapacity]);
+		this.scaleY = copy(this.scaleY, new float[newCapacity]);
+		this.angle = copy(this.angle, new float[newCapacity]);
+		this.orientationHorizontal = copy(this.orientationHorizontal, new float[newCapacity]);
+		this.orientationVertical = copy(this.orientationVertical, new float[newCapacity]);
+		
+		this.keys = copy(this.keys, new long[newCapacity]);
+		this.keysBuffer = new long[newCapacity];
+		this.order = copy(this.order, new int[newCapacity]);
+		this.orderBuffer = new int[newCapacity];
+		
+		this.capacity = newCapacity;
+	}
+	
+	private Texture[] copy(Texture[] source, Texture[] target)
+	{
+		if (source != null)
+		{
+			System.arraycopy(source, 0, target, 0, this.size);
+		}
+		
+		return target;
+	}
+	
+	private TileMap[] copy(TileMap[] source, TileMap[] target)
+	{
+		if (source != null)
+		{
+			System.arraycopy(source, 0, target, 0, this.size);
+		}
+		
+		return target;
+	}
+	
+	private float[] copy(float[] source, float[] target)
+	{
+		if (source != null)
+		{
+			System.arraycopy(source, 0, target, 0, this.size);
+		}
+		
+		return target;
+	}
+	
+	private long[] copy(long[] source, long[] target)
+	{
+		if (source != null)
+		{
+			System.arraycopy(source, 0, target, 0, this.size);
+		}
+		
+		return target;
+	}
+	
+	private int[] copy(int[] source, int[] target)
+	{
+		if (source != null)
+		{
+			System.arraycopy(source, 0, target, 0, this.size);
+		}
+		
+		return target;
+	}
+	
+	public void clear()
+	{
+		// drop the texture references so the queue does not keep unloaded textures alive
+		for (int i = 0; i < this.size; i++)
+		{
+			this.textures[i] = null;
+			this.tileMaps[i] = null;
+		}
+		
+		this.size = 0;
+	}
+	
+	public int size()
+	{
+		return this.size;
+	}
+	
+	public void add(Texture texture, int z, float previousX, float previousY, float previousAngle, float x, float y, float scaleX, float scaleY, float angle, float orientationHorizontal, float orientationVertical)
+	{
+		if (this.size == this.capacity)
+		{
+			allocate(this.capacity * 2);
+		}
+		
+		int index = this.size++;
+		
+		this.textures[index] = texture;
+		this.tileMaps[index] = null;
+		this.previousX[index] = previousX;
+		this.previousY[index] = previousY;
+		this.previousAngle[index] = previousAngle;
+		this.x[index] = x;
+		this.y[index] = y;
+		this.scaleX[index] = scaleX;
+		this.scaleY[index] = scaleY;
+		this.angle[index] = angle;
+		this.orientationHorizontal[index] = orientationHorizontal;
+		this.orientationVertical[index] = orientationVertical;
+		
+		this.keys[index] = getKey(texture, z, index);
+		this.order[index] = index;
+	}
+	
+	public void add(TileMap tileMap)
+	{
+		if (this.size == this.capacity)
+		{
+			allocate(this.capacity * 2);
+		}
+		
+		int index = this.size++;
+		
+		this.textures[index] = null;
+		this.tileMaps[index] = tileMap;
+		
+		this.keys[index] = getKey(null, tileMap.z, index);
+		this.order[index] = index;
+	}
+	
+	private long getKey(Texture texture, int z, int index)
+	{
+		// flipping the sign bit makes negative layers sort before positive ones as unsigned values
+		long layer = (z ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+		TexturePage page = (texture == null) ? null : texture.getPage();
+		long textureKey = (page == null) ? 0 : (page.index & RenderQueue.TEXTURE_MASK);
+		
+		return (layer << (RenderQueue.TEXTURE_BITS + RenderQueue.ORDER_BITS)) | (textureKey << RenderQueue.ORDER_BITS) | (index & RenderQueue.ORDER_MASK);
+	}
+	
+	public void sort()
+	{
+		int count = this.size;
+		
+		if (count < 2)
+		{
+			return;
+		}
+		
+		int[] histograms = this.histograms;
+		
+		for (int i = 0; i < histograms.length; i++)
+		{
+			histograms[i] = 0;
+		}
+		
+		long[] keys = this.keys;
+		
+		// a single read computes the histogram of every byte
+		for (int i = 0; i < count; i++)
+		{
+			long key = keys[i];
+			
+			for (int b = 0; b < RenderQueue.KEY_BYTES; b++)
+			{
+				histograms[(b * RenderQueue.RADIX) + (int)((key >>> (b * 8)) & 0xFF)]++;
+			}
+		}
+		
+		long[] sourceKeys = this.keys;
+		int[] sourceOrder = this.order;
+		long[] targetKeys = this.keysBuffer;
+		int[] targetOrder = this.orderBuffer;
+		
+		for (int b = 0; b < RenderQueue.KEY_BYTES; b++)
+		{
+			int base = b * RenderQueue.RADIX;
+			int shift = b * 8;
+			
+			// skip the bytes shared by every key, they would not move anything
+			if (histograms[base + (int)((sourceKeys[0] >>> shift) & 0xFF)] == count)
+			{
+				continue;
+			}
+			
+			int offset = 0;
+			
+			for (int i = 0; i < RenderQueue.RADIX; i++)
+			{
+				int bucket = histograms[base + i];
+				histograms[base + i] = offset;
+				offset += bucket;
+			}
+			
+			for (int i = 0; i < count; i++)
+			{
+				long key = sourceKeys[i];
+				int position = histograms[base + (int)((key >>> shift) & 0xFF)]++;
+				
+				targetKeys[position] = key;
+				targetOrder[position] = sourceOrder[i];
+			}
+			
+			long[] swapKeys = sourceKeys;
+			sourceKeys = targetKeys;
+			targetKeys = swapKeys;
+			
+			int[] swapOrder = sourceOrder;
+			sourceOrder = targetOrder;
+			targetOrder = swapOrder;
+		}
+		
+		this.keys = sourceKeys;
+		this.keysBuffer = targetKeys;
+		this.order = sourceOrder;
+		this.orderBuffer = targetOrder;
+	}
+	
+	public Camera getCamera(float interpolation)
+	{
+		Camera result = this.interpolatedCamera;
+		result.set(this.camera);
+		
+		if (interpolation < 1f)
+		{
+			result.x = this.camera.previousX + ((this.camera.x - this.camera.previousX) * interpolation);
+			result.y = this.camera.previousY + ((this.camera.y - this.camera.previousY) * interpolation);
+		}
+		
+		return result;
+	}
+	
+	public void render(Renderer renderer, float interpolation, StaticLayerCache staticLayers)
+	{
+		int[] order = this.order;
+		long[] keys = this.keys;
+		Camera camera = getCamera(interpolation);
+		
+		// the cached static tiles are merged after the sprites of their layer, as static processes were drawn
+		int tile = 0;
+		int tiles = (staticLayers == null) ? 0 : staticLayers.getVisibleTiles();
+		
+		for (int i = 0; i < this.size; i++)
+		{
+			int z = getLayer(keys[i]);
+			
+			while ((tile < tiles) && (staticLayers.getTileLayer(tile) < z))
+			{
+				staticLayers.renderTile(renderer, tile++);
+			}
+			
+			int index = order[i];
+			
+			if (this.tileMaps[index] != null)
+			{
+				renderer.render(this.tileMaps[index], camera);
+			}
+			else if (interpolation < 1f)
+			{
+				float x = this.previousX[index] + ((this.x[index] - this.previousX[index]) * interpolation);
+				float y = this.previousY[index] + ((this.y[index] - this.previousY[index]) * interpolation);
+				float angle = this.previousAngle[index] + (getAngleDelta(this.previousAngle[index], this.angle[index]) * interpolation);
+				
+				renderer.render(this.textures[index], x, y, this.scaleX[index], this.scaleY[index], angle, this.orientationHorizontal[index], this.orientationVertical[index]);
+			}
+			else
+			{
+				renderer.render(this.textures[index], this.x[index], this.y[index], this.scaleX[index], this.scaleY[index], this.angle[index], this.orientationHorizontal[index], this.orientationVertical[index]);
+			}
+		}
+		
+		while (tile < tiles)
+		{
+			staticLayers.renderTile(renderer, tile++);
+		}
+	}
+	
+	public void render(Renderer renderer, float interpolation)
+	{
+		render(renderer, interpolation, null);
+	}
+	
+	private int getLayer(long key)
+	{
+		return (int)(key >>> (RenderQueue.TEXTURE_BITS + RenderQueue.ORDER_BITS)) ^ Integer.MIN_VALUE;
+	}
+	
+	private float getAngleDelta(float from, float to)
+	{
+		// turn the short way round so 350 -> 10 does not spin through 180
+		float delta = (to - from) % 360f;
+		
+		if (delta > 180f)
+		{
+			delta -= 360f;
+		}
+		else if (delta < -180f)
+		{
+			delta += 360f;
+		}
+		
+		return delta;
+	}
+}
\ No newline at end of file
@@ -10,6 +10,7 @@ import android.content.Context;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 import com.misty.R;
+import com.misty.graphics.textures.RenderTarget;
 import com.misty.graphics.textures.Texture;
 import com.misty.graphics.textures.TextureManager;
 import com.misty.kernel.Engine;
@@ -31,13 +32,15 @@ public class Renderer implements android.opengl.GLSurfaceView.Renderer
 	// screen
 	public int width = 0;
 	public int height = 0;
+	private int surfaceGeneration = 0;
 	
 	// shader
-	private int uMatrixLocation;
-	private int uTextureUnitLocation;
-	private int aPositionLocation;
-	private int aTextureCoordinatesLocation;
 	private final float[] projectionMatrix = new float[16];
+	private final float[] targetMatrix = new float[16];
+	
+	// batch
+	private final GLState glState = new GLState();
+	private final SpriteBatch spriteBatch = new SpriteBatch(this.glState);
 	
 	// engine status
 	private enum RendererStatus
@@ -69,11 +72,91 @@ public class Renderer implements android.opengl.GLSurfaceView.Renderer
 	{
 		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 		Matrix.orthoM(this.projectionMatrix, 0, camera.x, camera.x + camera.width, camera.y, camera.y + camera.height, -1f, 1f);
+		
+		this.glState.beginFrame();
+		this.spriteBatch.begin(this.projectionMatrix);
+	}
+	
+	public boolean beginTarget(RenderTarget target, float x, float y, float width, float height)
+	{
+		if (!target.isCreated())
+		{
+			boolean created = target.create();
+			
+			// creating the target binds its texture behind the state cache
+			this.glState.invalidateTextures();
+			
+			if (!created)
+			{
+				return false;
+			}
+		}
+		
+		target.bind();
+		GLES20.glClearColor(0f, 0f, 0f, 0f);
+		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+		Matrix.orthoM(this.targetMatrix, 0, x, x + width, y, y + height, -1f, 1f);
+		
+		this.glState.invalidateTextures();
+		this.spriteBatch.begin(this.targetMatrix);
+		
+		return true;
+	}
+	
+	public void endTarget()
+	{
+		this.spriteBatch.end();
+		
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+		GLES20.glViewport(0, 0, this.width, this.height);
+		GLES20.glClearColor(0f, 0f, 0f, 1f);
+	}
+	
+	public int getSurfaceGeneration()
+	{
+		return this.surfaceGeneration;
 	}
 	
 	public void render(Texture texture, float x, float y, float scaleX, float scaleY, float angle, float orientationHorizontal, float orientationVertical)
 	{
-		texture.render(this.projectionMatrix, x, y, scaleX, scaleY, angle, orientationHorizontal, orientationVertical, this.uMatrixLocation, this.uTextureUnitLocation, this.aPositionLocation, this.aTextureCoordinatesLocation);
+		this.spriteBatch.draw(texture, x, y, scaleX, scaleY, angle, orientationHorizontal, orientationVertical);
+	}
+	
+	public void render(TileMap tileMap, Camera camera)
+	{
+		tileMap.render(this.spriteBatch, this.glState, camera, this.surfaceGeneration);
+	}
+	
+	public void setBlendFunction(int source, int destination)
+	{
+		this.spriteBatch.setBlendFunction(source, destination);
+	}
+	
+	public void flush()
+	{
+		this.spriteBatch.end();
+		this.spriteBatch.endFrame();
+		this.glState.endFrame();
+	}
+	
+	public int getSpritesDrawn()
+	{
+		return this.spriteBatch.getDraws();
+	}
+	
+	public int getDrawCalls()
+	{
+		return this.spriteBatch.getFlushes();
+	}
+	
+	public int getIssuedStateCalls()
+	{
+		return this.glState.getIssuedCalls();
+	}
+	
+	public int getSkippedStateCalls()
+	{
+		return this.glState.getSkippedCalls();
 	}
 	
 	@Override
@@ -94,6 +177,8 @@ public class Renderer implements android.opengl.GLSurfaceView.Renderer
 			
 			// FPS.log(currentTime);
 			
+			// uploads go first, so the static layers and the frame see the same textures
+			TextureManager.uploadTextures();
 			this.engine.update(delta, this);
 		}
 		else if ((status == RendererStatus.PAUSED) || (status == RendererStatus.FINISHED))
@@ -109,20 +194,19 @@ public class Renderer implements android.opengl.GLSurfaceView.Renderer
 	@Override
 	public void onSurfaceCreated(GL10 unused, EGLConfig config)
 	{
+		this.glState.invalidate();
+		this.surfaceGeneration++;
+		
 		GLES20.glEnable(GLES20.GL_BLEND);
-		GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-		GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
 		GLES20.glClearColor(0f, 0f, 0f, 1f);
 		
 		String vertexShader = readTextFile(this.misty, R.raw.vertex_shader);
 		String fragmentShader = readTextFile(this.misty, R.raw.fragment_shader);
 		int program = buildProgram(vertexShader, fragmentShader);
-		GLES20.glUseProgram(program);
+		this.glState.useProgram(program);
 		
-		this.uMatrixLocation = GLES20.glGetUniformLocation(program, "u_Matrix");
-		this.uTextureUnitLocation = GLES20.glGetUniformLocation(program, "u_TextureUnit");
-		this.aPositionLocation = GLES20.glGetAttribLocation(program, "a_Position");
-		this.aTextureCoordinatesLocation = GLES20.glGetAttribLocation(program, "a_TextureCoordinates");
+		this.spriteBatch.setProgram(program);
+		this.spriteBatch.createBuffers();
 		
 		synchronized (this.stateChangedLock)
 		{
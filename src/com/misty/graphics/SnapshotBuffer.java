@@ -0,0 +1,103 @@
+package com.misty.graphics;
+
+public class SnapshotBuffer
+{
+	private final RenderQueue[] queues = new RenderQueue[3];
+	private int writing = 0;
+	private int ready = 1;
+	private int reading = 2;
+	private boolean fresh = false;
+	private boolean published = false;
+	private boolean released = false;
+	private final Object lock = new Object();
+	
+	public SnapshotBuffer()
+	{
+		for (int i = 0; i < this.queues.length; i++)
+		{
+			this.queues[i] = new RenderQueue();
+		}
+	}
+	
+	public RenderQueue getWriteQueue()
+	{
+		return this.queues[this.writing];
+	}
+	
+	public void publish()
+	{
+		synchronized (this.lock)
+		{
+			int swap = this.ready;
+			this.ready = this.writing;
+			this.writing = swap;
+			this.fresh = true;
+			this.published = true;
+			
+			this.lock.notifyAll();
+		}
+	}
+	
+	// until the first snapshot the queues hold no camera to render with
+	public boolean hasPublished()
+	{
+		synchronized (this.lock)
+		{
+			return this.published;
+		}
+	}
+	
+	public RenderQueue acquire()
+	{
+		synchronized (this.lock)
+		{
+			if (this.fresh)
+			{
+				int swap = this.reading;
+				this.reading = this.ready;
+				this.ready = swap;
+				this.fresh = false;
+				
+				this.lock.notifyAll();
+			}
+			
+			return this.queues[this.reading];
+		}
+	}
+	
+	public void awaitConsumed()
+	{
+		synchronized (this.lock)
+		{
+			while (this.fresh && (!this.released))
+			{
+				try
+				{
+					this.lock.wait();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+	
+	public void open()
+	{
+		synchronized (this.lock)
+		{
+			this.released = false;
+		}
+	}
+	
+	public void release()
+	{
+		synchronized (this.lock)
+		{
+			this.released = true;
+			this.lock.notifyAll();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,295 @@
+package com.misty.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import android.opengl.GLES20;
+import com.misty.graphics.textures.Texture;
+
+public class SpriteBatch
+{
+	private final float[] vertices;
+	private final FloatBuffer vertexData;
+	private final BufferObject vertexBuffer;
+	private final BufferObject indexBuffer;
+	private final int maxSprites;
+	private int sprites = 0;
+	
+	// state
+	private final GLState state;
+	private int textureId = 0;
+	private int blendSource = GLES20.GL_ONE;
+	private int blendDestination = GLES20.GL_ONE_MINUS_SRC_ALPHA;
+	private float[] projectionMatrix;
+	
+	// shader
+	private int uMatrixLocation;
+	private int uTextureUnitLocation;
+	private int aPositionLocation;
+	private int aTextureCoordinatesLocation;
+	private int aTranslationLocation;
+	private int aScaleLocation;
+	private int aAngleLocation;
+	
+	// statistics
+	private int draws = 0;
+	private int flushes = 0;
+	private int lastDraws = 0;
+	private int lastFlushes = 0;
+	
+	private static final int BYTES_PER_FLOAT = 4;
+	private static final int BYTES_PER_SHORT = 2;
+	private static final int VERTICES_PER_SPRITE = 4;
+	private static final int INDICES_PER_SPRITE = 6;
+	private static final int POSITION_COMPONENT_COUNT = 2;
+	private static final int TEXTURE_COORDINATES_COMPONENT_COUNT = 2;
+	private static final int TRANSLATION_COMPONENT_COUNT = 2;
+	private static final int SCALE_COMPONENT_COUNT = 2;
+	private static final int ANGLE_COMPONENT_COUNT = 1;
+	private static final int TEXTURE_COORDINATES_OFFSET = SpriteBatch.POSITION_COMPONENT_COUNT;
+	private static final int TRANSLATION_OFFSET = SpriteBatch.TEXTURE_COORDINATES_OFFSET + SpriteBatch.TEXTURE_COORDINATES_COMPONENT_COUNT;
+	private static final int SCALE_OFFSET = SpriteBatch.TRANSLATION_OFFSET + SpriteBatch.TRANSLATION_COMPONENT_COUNT;
+	private static final int ANGLE_OFFSET = SpriteBatch.SCALE_OFFSET + SpriteBatch.SCALE_COMPONENT_COUNT;
+	private static final int COMPONENT_COUNT = SpriteBatch.ANGLE_OFFSET + SpriteBatch.ANGLE_COMPONENT_COUNT;
+	private static final int STRIDE = SpriteBatch.COMPONENT_COUNT * SpriteBatch.BYTES_PER_FLOAT;
+	private static final int SPRITE_SIZE = SpriteBatch.VERTICES_PER_SPRITE * SpriteBatch.COMPONENT_COUNT;
+	
+	private static final float DEGREES_TO_RADIANS = (float)(Math.PI / 180);
+	
+	public static final int DEFAULT_MAX_SPRITES = 1000;
+	
+	public SpriteBatch(GLState state, int maxSprites)
+	{
+		this.state = state;
+		
+		// indices are shorts, so a single batch cannot address more than Short.MAX_VALUE vertices
+		this.maxSprites = Math.min(maxSprites, Short.MAX_VALUE / SpriteBatch.VERTICES_PER_SPRITE);
+		this.vertices = new float[this.maxSprites * SpriteBatch.SPRITE_SIZE];
+		
+		int vertexSize = this.vertices.length * SpriteBatch.BYTES_PER_FLOAT;
+		ByteBuffer vertexBytes = ByteBuffer.allocateDirect(vertexSize);
+		vertexBytes.order(ByteOrder.nativeOrder());
+		this.vertexData = vertexBytes.asFloatBuffer();
+		this.vertexBuffer = new BufferObject(GLES20.GL_ARRAY_BUFFER, GLES20.GL_DYNAMIC_DRAW, vertexSize, null);
+		
+		int indexSize = this.maxSprites * SpriteBatch.INDICES_PER_SPRITE * SpriteBatch.BYTES_PER_SHORT;
+		ByteBuffer indexBytes = ByteBuffer.allocateDirect(indexSize);
+		indexBytes.order(ByteOrder.nativeOrder());
+		ShortBuffer indexData = indexBytes.asShortBuffer();
+		
+		for (int i = 0; i < this.maxSprites; i++)
+		{
+			short vertex = (short)(i * SpriteBatch.VERTICES_PER_SPRITE);
+			
+			// A----C
+			// | /|
+			// |/ |
+			// B----D
+			
+			indexData.put(vertex);
+			indexData.put((short)(vertex + 1));
+			indexData.put((short)(vertex + 2));
+			indexData.put((short)(vertex + 2));
+			indexData.put((short)(vertex + 1));
+			indexData.put((short)(vertex + 3));
+		}
+		
+		this.indexBuffer = new BufferObject(GLES20.GL_ELEMENT_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, indexSize, indexData);
+	}
+	
+	public SpriteBatch(GLState state)
+	{
+		this(state, SpriteBatch.DEFAULT_MAX_SPRITES);
+	}
+	
+	public void createBuffers()
+	{
+		this.vertexBuffer.create();
+		this.indexBuffer.create();
+	}
+	
+	public void setProgram(int program)
+	{
+		this.uMatrixLocation = GLES20.glGetUniformLocation(program, "u_Matrix");
+		this.uTextureUnitLocation = GLES20.glGetUniformLocation(program, "u_TextureUnit");
+		this.aPositionLocation = GLES20.glGetAttribLocation(program, "a_Position");
+		this.aTextureCoordinatesLocation = GLES20.glGetAttribLocation(program, "a_TextureCoordinates");
+		this.aTranslationLocation = GLES20.glGetAttribLocation(program, "a_Translation");
+		this.aScaleLocation = GLES20.glGetAttribLocation(program, "a_Scale");
+		this.aAngleLocation = GLES20.glGetAttribLocation(program, "a_Angle");
+	}
+	
+	public void begin(float[] projectionMatrix)
+	{
+		this.projectionMatrix = projectionMatrix;
+		this.sprites = 0;
+		this.textureId = 0;
+	}
+	
+	public void end()
+	{
+		flush();
+	}
+	
+	// the counters run from one frame to the next like the ones of the state, so the tile passes are part of the frame
+	public void endFrame()
+	{
+		this.lastDraws = this.draws;
+		this.lastFlushes = this.flushes;
+		this.draws = 0;
+		this.flushes = 0;
+	}
+	
+	public void setBlendFunction(int source, int destination)
+	{
+		if ((source != this.blendSource) || (destination != this.blendDestination))
+		{
+			flush();
+			
+			this.blendSource = source;
+			this.blendDestination = destination;
+		}
+	}
+	
+	public void draw(Texture texture, float x, float y, float scaleX, float scaleY, float angle, float orientationHorizontal, float orientationVertical)
+	{
+		// textures still loading are not drawn
+		if (!texture.isReady())
+		{
+			return;
+		}
+		
+		int id = texture.getId();
+		
+		if ((id != this.textureId) || (this.sprites == this.maxSprites))
+		{
+			flush();
+			this.textureId = id;
+		}
+		
+		float halfWidth = texture.width / 2f;
+		float halfHeight = texture.height / 2f;
+		
+		// the vertex shader scales, flips, rotates and translates each corner
+		float centerX = x + (texture.width / 2);
+		float centerY = y + (texture.height / 2);
+		float axisX = scaleX * orientationHorizontal;
+		float axisY = scaleY * orientationVertical;
+		float radians = angle * SpriteBatch.DEGREES_TO_RADIANS;
+		
+		float[] data = this.vertices;
+		int offset = this.sprites * SpriteBatch.SPRITE_SIZE;
+		
+		// Order of coordinates: X, Y, S, T, TX, TY, SX, SY, ANGLE (T is inverted)
+		
+		offset = putVertex(data, offset, -halfWidth, halfHeight, texture.u1, texture.v1, centerX, centerY, axisX, axisY, radians);
+		offset = putVertex(data, offset, -halfWidth, -halfHeight, texture.u1, texture.v2, centerX, centerY, axisX, axisY, radians);
+		offset = putVertex(data, offset, halfWidth, halfHeight, texture.u2, texture.v1, centerX, centerY, axisX, axisY, radians);
+		putVertex(data, offset, halfWidth, -halfHeight, texture.u2, texture.v2, centerX, centerY, axisX, axisY, radians);
+		
+		this.sprites++;
+		this.draws++;
+	}
+	
+	private static int putVertex(float[] data, int offset, float x, float y, float s, float t, float translationX, float translationY, float scaleX, float scaleY, float angle)
+	{
+		data[offset] = x;
+		data[offset + 1] = y;
+		data[offset + 2] = s;
+		data[offset + 3] = t;
+		data[offset + 4] = translationX;
+		data[offset + 5] = translationY;
+		data[offset + 6] = scaleX;
+		data[offset + 7] = scaleY;
+		data[offset + 8] = angle;
+		
+		return offset + SpriteBatch.COMPONENT_COUNT;
+	}
+	
+	public void flush()
+	{
+		if (this.sprites > 0)
+		{
+			int floats = this.sprites * SpriteBatch.SPRITE_SIZE;
+			this.vertexData.position(0);
+			this.vertexData.put(this.vertices, 0, floats);
+			
+			this.state.bindBuffer(GLES20.GL_ARRAY_BUFFER, this.vertexBuffer.getId());
+			this.vertexBuffer.update(this.vertexData, floats * SpriteBatch.BYTES_PER_FLOAT);
+			drawElements(this.textureId, 0, this.sprites);
+			
+			this.sprites = 0;
+			this.flushes++;
+		}
+	}
+	
+	public void draw(BufferObject buffer, int textureId, int first, int count)
+	{
+		// prebuilt geometry (tilemap chunks) shares the layout and the index buffer of the batch
+		flush();
+		
+		this.state.bindBuffer(GLES20.GL_ARRAY_BUFFER, buffer.getId());
+		drawElements(textureId, first, count);
+		
+		this.draws += count;
+		this.flushes++;
+	}
+	
+	public static int getVertexSize(int sprites)
+	{
+		return sprites * SpriteBatch.SPRITE_SIZE * SpriteBatch.BYTES_PER_FLOAT;
+	}
+	
+	public static int putSprite(float[] data, int offset, Texture texture, float left, float bottom, float width, float height)
+	{
+		float halfWidth = width / 2f;
+		float halfHeight = height / 2f;
+		float centerX = left + halfWidth;
+		float centerY = bottom + halfHeight;
+		
+		offset = putVertex(data, offset, -halfWidth, halfHeight, texture.u1, texture.v1, centerX, centerY, 1, 1, 0);
+		offset = putVertex(data, offset, -halfWidth, -halfHeight, texture.u1, texture.v2, centerX, centerY, 1, 1, 0);
+		offset = putVertex(data, offset, halfWidth, halfHeight, texture.u2, texture.v1, centerX, centerY, 1, 1, 0);
+		
+		return putVertex(data, offset, halfWidth, -halfHeight, texture.u2, texture.v2, centerX, centerY, 1, 1, 0);
+	}
+	
+	private void drawElements(int textureId, int first, int count)
+	{
+		GLState state = this.state;
+		state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, this.indexBuffer.getId());
+		
+		// setting uniforms
+		state.uniformMatrix4fv(this.uMatrixLocation, this.projectionMatrix);
+		state.bindTexture(0, textureId);
+		state.uniform1i(this.uTextureUnitLocation, 0);
+		state.blendFunc(this.blendSource, this.blendDestination);
+		
+		// rendering the sprites
+		setVertexAttribPointer(0, this.aPositionLocation, SpriteBatch.POSITION_COMPONENT_COUNT);
+		setVertexAttribPointer(SpriteBatch.TEXTURE_COORDINATES_OFFSET, this.aTextureCoordinatesLocation, SpriteBatch.TEXTURE_COORDINATES_COMPONENT_COUNT);
+		setVertexAttribPointer(SpriteBatch.TRANSLATION_OFFSET, this.aTranslationLocation, SpriteBatch.TRANSLATION_COMPONENT_COUNT);
+		setVertexAttribPointer(SpriteBatch.SCALE_OFFSET, this.aScaleLocation, SpriteBatch.SCALE_COMPONENT_COUNT);
+		setVertexAttribPointer(SpriteBatch.ANGLE_OFFSET, this.aAngleLocation, SpriteBatch.ANGLE_COMPONENT_COUNT);
+		
+		int offset = first * SpriteBatch.INDICES_PER_SPRITE * SpriteBatch.BYTES_PER_SHORT;
+		GLES20.glDrawElements(GLES20.GL_TRIANGLES, count * SpriteBatch.INDICES_PER_SPRITE, GLES20.GL_UNSIGNED_SHORT, offset);
+	}
+	
+	private void setVertexAttribPointer(int dataOffset, int attributeLocation, int componentCount)
+	{
+		this.state.vertexAttribPointer(attributeLocation, componentCount, SpriteBatch.STRIDE, dataOffset * SpriteBatch.BYTES_PER_FLOAT);
+		this.state.enableVertexAttribArray(attributeLocation);
+	}
+	
+	public int getDraws()
+	{
+		return this.lastDraws;
+	}
+	
+	public int getFlushes()
+	{
+		return this.lastFlushes;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,471 @@
+package com.misty.graphics;
+
+import java.util.ArrayList;
+import java.util.List;
+import android.util.SparseArray;
+import com.misty.graphics.textures.RenderTarget;
+import com.misty.graphics.textures.Texture;
+import com.misty.graphics.textures.TextureManager;
+import com.misty.kernel.Process;
+
+public class StaticLayerCache
+{
+	private final Object lock = new Object();
+	private final SparseArray<Layer> layers = new SparseArray<Layer>();
+	private final SparseArray<Sprite> sprites = new SparseArray<Sprite>();
+	private final List<Tile> releasedTiles = new ArrayList<Tile>();
+	
+	// tiles
+	private volatile int tileSize = StaticLayerCache.DEFAULT_TILE_SIZE;
+	private volatile int maxTiles = StaticLayerCache.DEFAULT_MAX_TILES;
+	private int tilesCount = 0;
+	private int renderedSize = 0;
+	private float renderedScale = 0;
+	private int surfaceGeneration = -1;
+	private int frame = 0;
+	
+	// visible tiles of the last prepared frame, in ascending layer order
+	private Tile[] visibleTiles = new Tile[16];
+	private int visibleCount = 0;
+	
+	public static final int DEFAULT_TILE_SIZE = 512;
+	public static final int DEFAULT_MAX_TILES = 24;
+	
+	// ============================ SPRITES =========================== \\
+	
+	public static boolean isCacheable(Process process)
+	{
+		return (!process.isDynamic) && (!process.fixedPosition);
+	}
+	
+	public boolean contains(Process process)
+	{
+		return (this.sprites.get(process.id) != null);
+	}
+	
+	public void add(Process process)
+	{
+		synchronized (this.lock)
+		{
+			removeSprite(process.id);
+			
+			if (isCacheable(process) && process.hasImage() && process.visible && (!process.isSpeeling()))
+			{
+				Sprite sprite = new Sprite(process);
+				this.sprites.put(process.id, sprite);
+				
+				Layer layer = this.layers.get(sprite.z);
+				
+				if (layer == null)
+				{
+					layer = new Layer(sprite.z);
+					this.layers.put(sprite.z, layer);
+				}
+				
+				layer.sprites.put(process.id, sprite);
+				invalidate(layer, sprite);
+			}
+		}
+	}
+	
+	public void update(Process process)
+	{
+		add(process);
+	}
+	
+	public void remove(Process process)
+	{
+		synchronized (this.lock)
+		{
+			removeSprite(process.id);
+		}
+	}
+	
+	public void clear()
+	{
+		synchronized (this.lock)
+		{
+			int size = this.layers.size();
+			
+			for (int i = 0; i < size; i++)
+			{
+				releaseTiles(this.layers.valueAt(i));
+			}
+			
+			this.layers.clear();
+			this.sprites.clear();
+		}
+	}
+	
+	public void invalidate()
+	{
+		synchronized (this.lock)
+		{
+			int size = this.layers.size();
+			
+			for (int i = 0; i < size; i++)
+			{
+				SparseArray<Tile> tiles = this.layers.valueAt(i).tiles;
+				int tilesSize = tiles.size();
+				
+				for (int j = 0; j < tilesSize; j++)
+				{
+					tiles.valueAt(j).dirty = true;
+				}
+			}
+		}
+	}
+	
+	public void setTileSize(int pixels)
+	{
+		this.tileSize = Math.max(pixels, 16);
+	}
+	
+	public void setMaxTiles(int maxTiles)
+	{
+		this.maxTiles = Math.max(maxTiles, 1);
+	}
+	
+	private void removeSprite(int id)
+	{
+		Sprite sprite = this.sprites.get(id);
+		
+		if (sprite != null)
+		{
+			this.sprites.remove(id);
+			
+			Layer layer = this.layers.get(sprite.z);
+			layer.sprites.remove(id);
+			
+			if (layer.sprites.size() == 0)
+			{
+				releaseTiles(layer);
+				this.layers.remove(sprite.z);
+			}
+			else
+			{
+				invalidate(layer, sprite);
+			}
+		}
+	}
+	
+	private void invalidate(Layer layer, Sprite sprite)
+	{
+		int size = layer.tiles.size();
+		
+		for (int i = 0; i < size; i++)
+		{
+			Tile tile = layer.tiles.valueAt(i);
+			
+			if ((!tile.dirty) && tile.overlaps(sprite))
+			{
+				tile.dirty = true;
+			}
+		}
+	}
+	
+	private void releaseTiles(Layer layer)
+	{
+		int size = layer.tiles.size();
+		
+		for (int i = 0; i < size; i++)
+		{
+			this.releasedTiles.add(layer.tiles.valueAt(i));
+		}
+		
+		this.tilesCount -= size;
+		layer.tiles.clear();
+	}
+	
+	// ============================ RENDER =========================== \\
+	
+	public void prepare(Renderer renderer, Camera camera)
+	{
+		synchronized (this.lock)
+		{
+			this.visibleCount = 0;
+			
+			if ((camera.width <= 0) || (renderer.width <= 0))
+			{
+				return;
+			}
+			
+			boolean contextLost = (renderer.getSurfaceGeneration() != this.surfaceGeneration);
+			this.surfaceGeneration = renderer.getSurfaceGeneration();
+			
+			int size = Math.min(this.tileSize, TextureManager.getMaxTextureSize());
+			float scale = (float)renderer.width / camera.width;
+			
+			// tiles are only valid at the resolution they were rendered at
+			if (contextLost || (size != this.renderedSize) || (scale != this.renderedScale))
+			{
+				int layersSize = this.layers.size();
+				
+				for (int i = 0; i < layersSize; i++)
+				{
+					releaseTiles(this.layers.valueAt(i));
+				}
+				
+				// the objects died with the old context, there is nothing left to delete
+				if (contextLost)
+				{
+					this.releasedTiles.clear();
+				}
+				
+				this.renderedSize = size;
+				this.renderedScale = scale;
+			}
+			
+			deleteReleasedTiles();
+			
+			this.frame++;
+			float worldSize = size / scale;
+			
+			int firstColumn = (int)Math.floor(camera.x / worldSize);
+			int lastColumn = (int)Math.floor((camera.x + camera.width) / worldSize);
+			int firstRow = (int)Math.floor(camera.y / worldSize);
+			int lastRow = (int)Math.floor((camera.y + camera.height) / worldSize);
+			
+			int layersSize = this.layers.size();
+			
+			for (int i = 0; i < layersSize; i++)
+			{
+				Layer layer = this.layers.valueAt(i);
+				
+				for (int row = firstRow; row <= lastRow; row++)
+				{
+					for (int column = firstColumn; column <= lastColumn; column++)
+					{
+						int key = getTileKey(column, row);
+						Tile tile = layer.tiles.get(key);
+						
+						if (tile == null)
+						{
+							tile = new Tile(layer.z, column * worldSize, row * worldSize, worldSize, new RenderTarget(size, size));
+							layer.tiles.put(key, tile);
+							this.tilesCount++;
+						}
+						
+						tile.lastFrame = this.frame;
+						
+						// a tile that could not be drawn (no framebuffer support) is left out rather than shown stale
+						if ((!tile.dirty) || redrawTile(renderer, layer, tile))
+						{
+							addVisibleTile(tile);
+						}
+					}
+				}
+			}
+			
+			evictTiles();
+		}
+	}
+	
+	private int getTileKey(int column, int row)
+	{
+		return ((column & 0xFFFF) << 16) | (row & 0xFFFF);
+	}
+	
+	private boolean redrawTile(Renderer renderer, Layer layer, Tile tile)
+	{
+		if (!renderer.beginTarget(tile.target, tile.x, tile.y, tile.size, tile.size))
+		{
+			return false;
+		}
+		
+		int size = layer.sprites.size();
+		boolean complete = true;
+		
+		for (int i = 0; i < size; i++)
+		{
+			Sprite sprite = layer.sprites.valueAt(i);
+			
+			if (tile.overlaps(sprite))
+			{
+				renderer.render(sprite.texture, sprite.x, sprite.y, sprite.scaleX, sprite.scaleY, sprite.angle, sprite.orientationHorizontal, sprite.orientationVertical);
+				complete &= sprite.texture.isReady();
+			}
+		}
+		
+		renderer.endTarget();
+		
+		// tiles drawn while a texture is still loading are drawn again on the next frame
+		tile.dirty = !complete;
+		
+		return true;
+	}
+	
+	private void addVisibleTile(Tile tile)
+	{
+		if (this.visibleCount == this.visibleTiles.length)
+		{
+			Tile[] newTiles = new Tile[this.visibleTiles.length * 2];
+			System.arraycopy(this.visibleTiles, 0, newTiles, 0, this.visibleCount);
+			this.visibleTiles = newTiles;
+		}
+		
+		this.visibleTiles[this.visibleCount++] = tile;
+	}
+	
+	private void evictTiles()
+	{
+		// the tiles on screen are never evicted, even when they alone exceed the limit
+		while (this.tilesCount > this.maxTiles)
+		{
+			Layer oldestLayer = null;
+			int oldestKey = 0;
+			int oldestFrame = this.frame;
+			int layersSize = this.layers.size();
+			
+			for (int i = 0; i < layersSize; i++)
+			{
+				Layer layer = this.layers.valueAt(i);
+				int tilesSize = layer.tiles.size();
+				
+				for (int j = 0; j < tilesSize; j++)
+				{
+					Tile tile = layer.tiles.valueAt(j);
+					
+					if (tile.lastFrame < oldestFrame)
+					{
+						oldestLayer = layer;
+						oldestKey = layer.tiles.keyAt(j);
+						oldestFrame = tile.lastFrame;
+					}
+				}
+			}
+			
+			if (oldestLayer == null)
+			{
+				break;
+			}
+			
+			oldestLayer.tiles.get(oldestKey).target.delete();
+			oldestLayer.tiles.remove(oldestKey);
+			this.tilesCount--;
+		}
+	}
+	
+	private void deleteReleasedTiles()
+	{
+		int size = this.releasedTiles.size();
+		
+		for (int i = 0; i < size; i++)
+		{
+			this.releasedTiles.get(i).target.delete();
+		}
+		
+		this.releasedTiles.clear();
+	}
+	
+	public int getVisibleTiles()
+	{
+		return this.visibleCount;
+	}
+	
+	public int getTileLayer(int index)
+	{
+		return this.visibleTiles[index].z;
+	}
+	
+	public void renderTile(Renderer renderer, int index)
+	{
+		Tile tile = this.visibleTiles[index];
+		Texture texture = tile.target.texture;
+		float scale = tile.size / texture.width;
+		
+		// the batch scales around the unscaled centre of the texture
+		float x = tile.x + ((tile.size - texture.width) / 2f);
+		float y = tile.y + ((tile.size - texture.height) / 2f);
+		
+		renderer.render(texture, x, y, scale, scale, 0, 1, 1);
+	}
+	
+	// ============================ CLASSES =========================== \\
+	
+	private static class Layer
+	{
+		public final int z;
+		public final SparseArray<Sprite> sprites = new SparseArray<Sprite>();
+		public final SparseArray<Tile> tiles = new SparseArray<Tile>();
+		
+		public Layer(int z)
+		{
+			this.z = z;
+		}
+	}
+	
+	private static class Sprite
+	{
+		public final Texture texture;
+		public final int z;
+		public final float x;
+		public final float y;
+		public final float scaleX;
+		public final float scaleY;
+		public final float angle;
+		public final float orientationHorizontal;
+		public final float orientationVertical;
+		
+		// bounds, large enough to hold any rotation
+		public final float left;
+		public final float bottom;
+		public final float right;
+		public final float top;
+		
+		public Sprite(Process process)
+		{
+			this.texture = process.texture;
+			this.z = process.z;
+			this.x = process.x;
+			this.y = process.y;
+			this.scaleX = process.scaleX;
+			this.scaleY = process.scaleY;
+			this.angle = process.angle;
+			this.orientationHorizontal = process.orientationHorizontal;
+			this.orientationVertical = process.orientationVertical;
+			
+			float centerX = this.x + (this.texture.width / 2);
+			float centerY = this.y + (this.texture.height / 2);
+			float halfWidth = Math.abs(this.scaleX) * this.texture.width / 2f;
+			float halfHeight = Math.abs(this.scaleY) * this.texture.height / 2f;
+			
+			if (this.angle != 0)
+			{
+				float radius = (float)Math.sqrt((halfWidth * halfWidth) + (halfHeight * halfHeight));
+				halfWidth = radius;
+				halfHeight = radius;
+			}
+			
+			this.left = centerX - halfWidth;
+			this.bottom = centerY - halfHeight;
+			this.right = centerX + halfWidth;
+			this.top = centerY + halfHeight;
+		}
+	}
+	
+	private static class Tile
+	{
+		public final int z;
+		public final float x;
+		public final float y;
+		public final float size;
+		public final RenderTarget target;
+		public boolean dirty = true;
+		public int lastFrame = 0;
+		
+		public Tile(int z, float x, float y, float size, RenderTarget target)
+		{
+			this.z = z;
+			this.x = x;
+			this.y = y;
+			this.size = size;
+			this.target = target;
+		}
+		
+		public boolean overlaps(Sprite sprite)
+		{
+			return !((sprite.right < this.x) || (sprite.top < this.y) || ((this.x + this.size) < sprite.left) || ((this.y + this.size) < sprite.bottom));
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,651 @@
+package com.misty.graphics;
+
+import java.util.List;
+import com.misty.kernel.Process;
+import com.misty.math.Rectangle;
+import com.misty.math.Utils;
+import com.misty.utils.LongMap;
+import com.misty.utils.WorkerPool;
+
+public class SweepAndPrune implements PairBroadphase
+{
+	// process id -> index of its entry, the entries in use are packed at the front of the pool
+	private final LongMap entryIndexes = new LongMap(256);
+	private Entry[] entries = new Entry[64];
+	private int entryCount = 0;
+	
+	// the same entries sorted by their start on the sweep axis, kept from one update to the next
+	private Entry[] order = new Entry[64];
+	private boolean sweepX = true;
+	private static final double AXIS_SWITCH_RATIO = 1.25;
+	
+	// the entries sorted by the last update come first, the longest of them on the sweep axis bounds the query windows
+	private int sortedCount = 0;
+	private float maxExtent = 0;
+	private Entry[] window = new Entry[64];
+	
+	// overlapping bounds of the last update and whether their pixels touch, in sweep order
+	private int[] candidatesA = new int[64];
+	private int[] candidatesB = new int[64];
+	private boolean[] hits = new boolean[64];
+	private int candidateCount = 0;
+	
+	// the narrowphase is spread over the pool when there is one and enough candidates
+	private WorkerPool workers = null;
+	private final WorkerPool.Task narrowphase = new WorkerPool.Task()
+	{
+		@Override
+		public void run(int start, int end)
+		{
+			testCandidates(start, end);
+		}
+	};
+	private static final int PARALLEL_CANDIDATES = 256;
+	private static final int CHUNK_SIZE = 64;
+	
+	// colliding pairs of the last update, as indexes into the pool
+	private int[] pairsA = new int[64];
+	private int[] pairsB = new int[64];
+	private int pairCount = 0;
+	
+	// the colliding processes of every entry, one run per entry
+	private Process[] contacts = new Process[64];
+	private final NearestProcesses nearest = new NearestProcesses();
+	private final Rectangle bounds = new Rectangle(0, 0, 0, 0);
+	
+	public void clear()
+	{
+		for (int i = 0; i < this.entryCount; i++)
+		{
+			this.entries[i].process = null;
+			this.order[i] = null;
+		}
+		
+		for (int i = 0; i < this.contacts.length; i++)
+		{
+			this.contacts[i] = null;
+		}
+		
+		this.entryIndexes.clear();
+		this.entryCount = 0;
+		this.sortedCount = 0;
+		this.maxExtent = 0;
+		this.pairCount = 0;
+	}
+	
+	public boolean contains(Process process)
+	{
+		return this.entryIndexes.containsKey(process.id);
+	}
+	
+	public void updateProcess(Process process)
+	{
+		int index = this.entryIndexes.get(process.id);
+		
+		if (index == LongMap.MISSING)
+		{
+			index = this.entryCount++;
+			
+			if (index == this.entries.length)
+			{
+				Entry[] newEntries = new Entry[index * 2];
+				System.arraycopy(this.entries, 0, newEntries, 0, index);
+				this.entries = newEntries;
+				
+				Entry[] newOrder = new Entry[index * 2];
+				System.arraycopy(this.order, 0, newOrder, 0, index);
+				this.order = newOrder;
+			}
+			
+			// entries freed earlier are reused
+			if (this.entries[index] == null)
+			{
+				this.entries[index] = new Entry();
+			}
+			
+			Entry entry = this.entries[index];
+			entry.process = process;
+			entry.index = index;
+			entry.contactCount = 0;
+			this.entryIndexes.put(process.id, index);
+			
+			// new entries join at the end, the next sort moves them in place
+			this.order[index] = entry;
+		}
+		
+		this.entries[index].setBounds(process.getCollisionBounds(this.bounds));
+	}
+	
+	public void removeProcess(Process process)
+	{
+		int index = this.entryIndexes.get(process.id);
+		
+		if (index != LongMap.MISSING)
+		{
+			Entry entry = this.entries[index];
+			this.entryIndexes.remove(process.id);
+			
+			// the sorted order is kept, the following entries move back one place
+			int position = 0;
+			
+			while (this.order[position] != entry)
+			{
+				position++;
+			}
+			
+			System.arraycopy(this.order, position + 1, this.order, position, this.entryCount - position - 1);
+			
+			if (position < this.sortedCount)
+			{
+				this.sortedCount--;
+			}
+			
+			// the last entry takes the freed place in the pool
+			int last = --this.entryCount;
+			this.order[last] = null;
+			
+			if (index != last)
+			{
+				Entry moved = this.entries[last];
+				moved.index = index;
+				this.entries[index] = moved;
+				this.entries[last] = entry;
+				this.entryIndexes.put(moved.process.id, index);
+			}
+			
+			entry.process = null;
+			
+			// the pairs point at pool indexes, they are only valid again after the next update
+			this.pairCount = 0;
+		}
+	}
+	
+	// ========================= PAIRS ======================== \\
+	
+	public void finishUpdate()
+	{
+		chooseAxis();
+		sort();
+		this.sortedCount = this.entryCount;
+		findCandidates();
+		
+		if ((this.workers != null) && (this.candidateCount >= SweepAndPrune.PARALLEL_CANDIDATES))
+		{
+			this.workers.run(this.narrowphase, this.candidateCount, SweepAndPrune.CHUNK_SIZE);
+		}
+		else
+		{
+			testCandidates(0, this.candidateCount);
+		}
+		
+		mergePairs();
+		buildContacts();
+	}
+	
+	public void setWorkerPool(WorkerPool workers)
+	{
+		this.workers = workers;
+	}
+	
+	public int getPairCount()
+	{
+		return this.pairCount;
+	}
+	
+	public Process getPairA(int index)
+	{
+		return this.entries[this.pairsA[index]].process;
+	}
+	
+	public Process getPairB(int index)
+	{
+		return this.entries[this.pairsB[index]].process;
+	}
+	
+	// the axis along which the processes are most spread out separates the most pairs
+	private void chooseAxis()
+	{
+		if (this.entryCount > 1)
+		{
+			double sumX = 0;
+			double sumY = 0;
+			double sumXX = 0;
+			double sumYY = 0;
+			
+			for (int i = 0; i < this.entryCount; i++)
+			{
+				Entry entry = this.entries[i];
+				float centerX = (entry.left + entry.right) / 2;
+				float centerY = (entry.bottom + entry.top) / 2;
+				
+				sumX += centerX;
+				sumY += centerY;
+				sumXX += centerX * centerX;
+				sumYY += centerY * centerY;
+			}
+			
+			double varianceX = sumXX - ((sumX * sumX) / this.entryCount);
+			double varianceY = sumYY - ((sumY * sumY) / this.entryCount);
+			
+			// the order is only sorted for the current axis, it changes on a clear margin instead of flipping in crowds
+			if (this.sweepX ? (varianceY > (varianceX * SweepAndPrune.AXIS_SWITCH_RATIO)) : (varianceX > (varianceY * SweepAndPrune.AXIS_SWITCH_RATIO)))
+			{
+				this.sweepX = !this.sweepX;
+			}
+		}
+		
+		this.maxExtent = 0;
+		
+		for (int i = 0; i < this.entryCount; i++)
+		{
+			Entry entry = this.entries[i];
+			entry.setAxis(this.sweepX);
+			this.maxExtent = Math.max(this.maxExtent, entry.max - entry.min);
+		}
+	}
+	
+	// processes move little between updates, the order is almost sorted and an insertion sort is close to linear
+	private void sort()
+	{
+		for (int i = 1; i < this.entryCount; i++)
+		{
+			Entry entry = this.order[i];
+			int j = i - 1;
+			
+			while ((j >= 0) && (this.order[j].min > entry.min))
+			{
+				this.order[j + 1] = this.order[j];
+				j--;
+			}
+			
+			this.order[j + 1] = entry;
+		}
+	}
+	
+	private void findCandidates()
+	{
+		this.candidateCount = 0;
+		
+		for (int i = 0; i < this.entryCount; i++)
+		{
+			Entry entryA = this.order[i];
+			
+			for (int j = i + 1; j < this.entryCount; j++)
+			{
+				Entry entryB = this.order[j];
+				
+				// every following entry starts after this one ends
+				if (entryB.min > entryA.max)
+				{
+					break;
+				}
+				
+				if ((entryA.otherMin <= entryB.otherMax) && (entryB.otherMin <= entryA.otherMax) && SweepAndPrune.canCollide(entryA.process, entryB.process))
+				{
+					addCandidate(entryA.index, entryB.index);
+				}
+			}
+		}
+	}
+	
+	// pairs neither process accepts are never queried, the narrowphase is skipped for them
+	private static boolean canCollide(Process processA, Process processB)
+	{
+		return ((processA.getCollisionCategory() & processB.collidesWith) != 0) || ((processB.getCollisionCategory() & processA.collidesWith) != 0);
+	}
+	
+	private void addCandidate(int indexA, int indexB)
+	{
+		if (this.candidateCount == this.candidatesA.length)
+		{
+			int[] newCandidatesA = new int[this.candidateCount * 2];
+			System.arraycopy(this.candidatesA, 0, newCandidatesA, 0, this.candidateCount);
+			this.candidatesA = newCandidatesA;
+			
+			int[] newCandidatesB = new int[this.candidateCount * 2];
+			System.arraycopy(this.candidatesB, 0, newCandidatesB, 0, this.candidateCount);
+			this.candidatesB = newCandidatesB;
+			
+			this.hits = new boolean[this.candidateCount * 2];
+		}
+		
+		this.candidatesA[this.candidateCount] = indexA;
+		this.candidatesB[this.candidateCount] = indexB;
+		this.candidateCount++;
+	}
+	
+	// every candidate has its own slot, the threads never write to the same one
+	private void testCandidates(int start, int end)
+	{
+		for (int i = start; i < end; i++)
+		{
+			this.hits[i] = Narrowphase.collide(this.entries[this.candidatesA[i]].process, this.entries[this.candidatesB[i]].process);
+		}
+	}
+	
+	// the pairs keep the sweep order, whatever the number of threads that tested them
+	private void mergePairs()
+	{
+		if (this.pairsA.length < this.candidateCount)
+		{
+			this.pairsA = new int[this.candidatesA.length];
+			this.pairsB = new int[this.candidatesB.length];
+		}
+		
+		this.pairCount = 0;
+		
+		for (int i = 0; i < this.candidateCount; i++)
+		{
+			if (this.hits[i])
+			{
+				this.pairsA[this.pairCount] = this.candidatesA[i];
+				this.pairsB[this.pairCount] = this.candidatesB[i];
+				this.pairCount++;
+			}
+		}
+	}
+	
+	private void buildContacts()
+	{
+		for (int i = 0; i < this.entryCount; i++)
+		{
+			this.entries[i].contactCount = 0;
+		}
+		
+		for (int i = 0; i < this.pairCount; i++)
+		{
+			this.entries[this.pairsA[i]].contactCount++;
+			this.entries[this.pairsB[i]].contactCount++;
+		}
+		
+		int total = 0;
+		
+		for (int i = 0; i < this.entryCount; i++)
+		{
+			Entry entry = this.entries[i];
+			entry.contactStart = total;
+			total += entry.contactCount;
+			entry.contactCount = 0;
+		}
+		
+		if (total > this.contacts.length)
+		{
+			this.contacts = new Process[Math.max(total, this.contacts.length * 2)];
+		}
+		
+		for (int i = 0; i < this.pairCount; i++)
+		{
+			Entry entryA = this.entries[this.pairsA[i]];
+			Entry entryB = this.entries[this.pairsB[i]];
+			
+			this.contacts[entryA.contactStart + entryA.contactCount++] = entryB.process;
+			this.contacts[entryB.contactStart + entryB.contactCount++] = entryA.process;
+		}
+	}
+	
+	// ========================= QUERIES ======================== \\
+	
+	// answered from the pairs of the last update, processes outside of the sweep are tested directly
+	public List<Process> getCollisions(Process process, List<Process> result, int mask)
+	{
+		result.clear();
+		
+		int filter = mask & process.collidesWith;
+		
+		if (filter == 0)
+		{
+			return result;
+		}
+		
+		int index = this.entryIndexes.get(process.id);
+		
+		if (index != LongMap.MISSING)
+		{
+			Entry entry = this.entries[index];
+			int end = entry.contactStart + entry.contactCount;
+			
+			for (int i = entry.contactStart; i < end; i++)
+			{
+				if ((this.contacts[i].getCollisionCategory() & filter) != 0)
+				{
+					result.add(this.contacts[i]);
+				}
+			}
+		}
+		else
+		{
+			for (int i = 0; i < this.entryCount; i++)
+			{
+				Process currentProcess = this.entries[i].process;
+				
+				if ((currentProcess != process) && ((currentProcess.getCollisionCategory() & filter) != 0) && Narrowphase.collide(process, currentProcess))
+				{
+					result.add(currentProcess);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	// the queries search the sweep order of the last update, the processes are tested with their current bounds
+	public void query(float left, float bottom, float right, float top, int mask, List<Process> result)
+	{
+		queryRange(left, bottom, right, top, 0, 0, -1, mask, result);
+	}
+	
+	public void queryPoint(float x, float y, int mask, List<Process> result)
+	{
+		queryRange(x, y, x, y, 0, 0, -1, mask, result);
+	}
+	
+	public void queryCircle(float x, float y, float radius, int mask, List<Process> result)
+	{
+		queryRange(x - radius, y - radius, x + radius, y + radius, x, y, radius * radius, mask, result);
+	}
+	
+	private void queryRange(float left, float bottom, float right, float top, float x, float y, float radiusSquared, int mask, List<Process> result)
+	{
+		int size = fillWindow(this.sweepX ? left : bottom, this.sweepX ? right : top);
+		
+		for (int i = 0; i < size; i++)
+		{
+			Process process = this.window[i].process;
+			
+			if ((process.getCollisionCategory() & mask) != 0)
+			{
+				Rectangle bounds = process.getCollisionBounds(this.bounds);
+				
+				if ((bounds.x <= right) && (bounds.getRight() >= left) && (bounds.y <= top) && (bounds.getTop() >= bottom))
+				{
+					if ((radiusSquared < 0) || (Utils.getDistanceSquared(bounds.x, bounds.y, bounds.getRight(), bounds.getTop(), x, y) <= radiusSquared))
+					{
+						result.add(process);
+					}
+				}
+			}
+		}
+	}
+	
+	public void queryRay(float x1, float y1, float x2, float y2, int mask, List<Process> result)
+	{
+		int size = fillWindow(this.sweepX ? Math.min(x1, x2) : Math.min(y1, y2), this.sweepX ? Math.max(x1, x2) : Math.max(y1, y2));
+		
+		for (int i = 0; i < size; i++)
+		{
+			Process process = this.window[i].process;
+			
+			if ((process.getCollisionCategory() & mask) != 0)
+			{
+				Rectangle bounds = process.getCollisionBounds(this.bounds);
+				
+				if (Utils.intersectsSegment(bounds.x, bounds.y, bounds.getRight(), bounds.getTop(), x1, y1, x2, y2))
+				{
+					result.add(process);
+				}
+			}
+		}
+	}
+	
+	public Process raycast(float x1, float y1, float x2, float y2, int mask)
+	{
+		Process result = null;
+		float nearestHit = Float.MAX_VALUE;
+		int size = fillWindow(this.sweepX ? Math.min(x1, x2) : Math.min(y1, y2), this.sweepX ? Math.max(x1, x2) : Math.max(y1, y2));
+		
+		for (int i = 0; i < size; i++)
+		{
+			Process process = this.window[i].process;
+			
+			if ((process.getCollisionCategory() & mask) != 0)
+			{
+				Rectangle bounds = process.getCollisionBounds(this.bounds);
+				float hit = Utils.getSegmentHit(bounds.x, bounds.y, bounds.getRight(), bounds.getTop(), x1, y1, x2, y2);
+				
+				if ((hit >= 0) && (hit < nearestHit))
+				{
+					nearestHit = hit;
+					result = process;
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	// the sweep order is walked outwards from the point, each side stops once its entries are all farther on the sweep axis than the nearest found
+	public void queryNearest(float x, float y, int count, float maxDistance, int mask, List<Process> result)
+	{
+		this.nearest.reset(count, maxDistance);
+		
+		if (count > 0)
+		{
+			for (int i = this.sortedCount; i < this.entryCount; i++)
+			{
+				offerNearest(this.order[i], x, y, mask);
+			}
+			
+			float value = this.sweepX ? x : y;
+			int after = getFirst(value);
+			int before = after - 1;
+			
+			while ((before >= 0) || (after < this.sortedCount))
+			{
+				// the entries before the point end at most the longest extent after their start
+				float gapBefore = (before >= 0) ? Math.max(value - (this.order[before].min + this.maxExtent), 0) : Float.MAX_VALUE;
+				float gapAfter = (after < this.sortedCount) ? Math.max(this.order[after].min - value, 0) : Float.MAX_VALUE;
+				float gap = Math.min(gapBefore, gapAfter);
+				
+				if ((gap * gap) > this.nearest.getLimit())
+				{
+					break;
+				}
+				
+				if (gapBefore <= gapAfter)
+				{
+					offerNearest(this.order[before--], x, y, mask);
+				}
+				else
+				{
+					offerNearest(this.order[after++], x, y, mask);
+				}
+			}
+		}
+		
+		this.nearest.addTo(result);
+	}
+	
+	private void offerNearest(Entry entry, float x, float y, int mask)
+	{
+		Process process = entry.process;
+		
+		if ((process.getCollisionCategory() & mask) != 0)
+		{
+			Rectangle bounds = process.getCollisionBounds(this.bounds);
+			this.nearest.offer(process, Utils.getDistanceSquared(bounds.x, bounds.y, bounds.getRight(), bounds.getTop(), x, y));
+		}
+	}
+	
+	// the entries that may overlap [min, max] on the sweep axis, followed by the ones added since the last sort
+	private int fillWindow(float min, float max)
+	{
+		int size = 0;
+		
+		if (this.window.length < this.entryCount)
+		{
+			this.window = new Entry[this.order.length];
+		}
+		
+		for (int i = getFirst(min - this.maxExtent); (i < this.sortedCount) && (this.order[i].min <= max); i++)
+		{
+			this.window[size++] = this.order[i];
+		}
+		
+		for (int i = this.sortedCount; i < this.entryCount; i++)
+		{
+			this.window[size++] = this.order[i];
+		}
+		
+		return size;
+	}
+	
+	// the first sorted entry starting at or after the value
+	private int getFirst(float value)
+	{
+		int low = 0;
+		int high = this.sortedCount;
+		
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			
+			if (this.order[middle].min < value)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+		
+		return low;
+	}
+	
+	private static class Entry
+	{
+		public Process process;
+		public int index;
+		
+		// bounds at the last update
+		public float left;
+		public float bottom;
+		public float right;
+		public float top;
+		
+		// the same bounds on the sweep axis and on the other one
+		public float min;
+		public float max;
+		public float otherMin;
+		public float otherMax;
+		
+		public int contactStart;
+		public int contactCount;
+		
+		public void setBounds(Rectangle bounds)
+		{
+			this.left = bounds.x;
+			this.bottom = bounds.y;
+			this.right = bounds.getRight();
+			this.top = bounds.getTop();
+		}
+		
+		public void setAxis(boolean sweepX)
+		{
+			this.min = sweepX ? this.left : this.bottom;
+			this.max = sweepX ? this.right : this.top;
+			this.otherMin = sweepX ? this.bottom : this.left;
+			this.otherMax = sweepX ? this.top : this.right;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,434 @@
+package com.misty.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import android.opengl.GLES20;
+import com.misty.graphics.textures.Texture;
+import com.misty.graphics.textures.TexturePage;
+
+public class TileMap
+{
+	public final int columns;
+	public final int rows;
+	public final int tileWidth;
+	public final int tileHeight;
+	public final float x;
+	public final float y;
+	public final int z;
+	
+	// tiles, row 0 is the bottom one
+	private final Object lock = new Object();
+	private final Texture[] tileset;
+	private final short[] tiles;
+	private final long[] solid;
+	private final boolean[] solidTiles;
+	
+	// chunks
+	private final int chunkColumns;
+	private final int chunkRows;
+	private final Chunk[] chunks;
+	private int surfaceGeneration = -1;
+	private boolean deleted = false;
+	
+	// shared by every chunk while it is built on the GL thread
+	private static float[] vertices = null;
+	private static FloatBuffer vertexData = null;
+	
+	public static final int EMPTY = 0;
+	public static final int CHUNK_SIZE = 16;
+	private static final int CHUNK_TILES = TileMap.CHUNK_SIZE * TileMap.CHUNK_SIZE;
+	
+	public TileMap(Texture[] tileset, int columns, int rows, int tileWidth, int tileHeight, float x, float y, int z)
+	{
+		this.tileset = tileset;
+		this.columns = columns;
+		this.rows = rows;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		
+		this.tiles = new short[columns * rows];
+		this.solid = new long[((columns * rows) + 63) / 64];
+		this.solidTiles = new boolean[tileset.length + 1];
+		
+		this.chunkColumns = (columns + TileMap.CHUNK_SIZE - 1) / TileMap.CHUNK_SIZE;
+		this.chunkRows = (rows + TileMap.CHUNK_SIZE - 1) / TileMap.CHUNK_SIZE;
+		this.chunks = new Chunk[this.chunkColumns * this.chunkRows];
+	}
+	
+	// ============================ TILES =========================== \\
+	
+	public int getTile(int column, int row)
+	{
+		return this.tiles[(row * this.columns) + column];
+	}
+	
+	public void setTile(int column, int row, int tile)
+	{
+		synchronized (this.lock)
+		{
+			int index = (row * this.columns) + column;
+			
+			if (this.tiles[index] != tile)
+			{
+				this.tiles[index] = (short)tile;
+				
+				Chunk chunk = this.chunks[getChunkIndex(column / TileMap.CHUNK_SIZE, row / TileMap.CHUNK_SIZE)];
+				
+				if (chunk != null)
+				{
+					chunk.dirty = true;
+				}
+			}
+		}
+	}
+	
+	public void setTiles(int[] tiles)
+	{
+		synchronized (this.lock)
+		{
+			int size = Math.min(tiles.length, this.tiles.length);
+			
+			for (int i = 0; i < size; i++)
+			{
+				this.tiles[i] = (short)tiles[i];
+			}
+			
+			for (int i = 0; i < this.chunks.length; i++)
+			{
+				if (this.chunks[i] != null)
+				{
+					this.chunks[i].dirty = true;
+				}
+			}
+		}
+	}
+	
+	// a cell is solid when it was set solid itself or when the tile it holds is
+	public boolean isSolid(int column, int row)
+	{
+		int index = (row * this.columns) + column;
+		int tile = this.tiles[index];
+		
+		return ((this.solid[index >>> 6] & (1L << index)) != 0) || ((tile > TileMap.EMPTY) && (tile < this.solidTiles.length) && this.solidTiles[tile]);
+	}
+	
+	public void setSolid(int column, int row, boolean solid)
+	{
+		int index = (row * this.columns) + column;
+		
+		if (solid)
+		{
+			this.solid[index >>> 6] |= (1L << index);
+		}
+		else
+		{
+			this.solid[index >>> 6] &= ~(1L << index);
+		}
+	}
+	
+	// every cell holding the tile, now or after a later setTile, is solid
+	public void setSolidTile(int tile, boolean solid)
+	{
+		if ((tile > TileMap.EMPTY) && (tile < this.solidTiles.length))
+		{
+			this.solidTiles[tile] = solid;
+		}
+	}
+	
+	public boolean isSolidAt(float x, float y)
+	{
+		int column = (int)Math.floor((x - this.x) / this.tileWidth);
+		int row = (int)Math.floor((y - this.y) / this.tileHeight);
+		
+		return (column >= 0) && (row >= 0) && (column < this.columns) && (row < this.rows) && isSolid(column, row);
+	}
+	
+	public boolean isSolid(float left, float bottom, float right, float top)
+	{
+		int firstColumn = Math.max((int)Math.floor((left - this.x) / this.tileWidth), 0);
+		int lastColumn = Math.min((int)Math.floor((right - this.x) / this.tileWidth), this.columns - 1);
+		int firstRow = Math.max((int)Math.floor((bottom - this.y) / this.tileHeight), 0);
+		int lastRow = Math.min((int)Math.floor((top - this.y) / this.tileHeight), this.rows - 1);
+		
+		for (int row = firstRow; row <= lastRow; row++)
+		{
+			for (int column = firstColumn; column <= lastColumn; column++)
+			{
+				if (isSolid(column, row))
+				{
+					return true;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	public float getWidth()
+	{
+		return this.columns * this.tileWidth;
+	}
+	
+	public float getHeight()
+	{
+		return this.rows * this.tileHeight;
+	}
+	
+	public boolean isInside(Camera camera)
+	{
+		return !(((camera.x + camera.width) < this.x) || ((camera.y + camera.height) < this.y) || ((this.x + getWidth()) < camera.x) || ((this.y + getHeight()) < camera.y));
+	}
+	
+	// ============================ RENDER =========================== \\
+	
+	void render(SpriteBatch batch, GLState state, Camera camera, int surfaceGeneration)
+	{
+		synchronized (this.lock)
+		{
+			// an old snapshot may still reference a removed map
+			if (this.deleted)
+			{
+				return;
+			}
+			
+			if (surfaceGeneration != this.surfaceGeneration)
+			{
+				// the buffers died with the old context
+				for (int i = 0; i < this.chunks.length; i++)
+				{
+					this.chunks[i] = null;
+				}
+				
+				this.surfaceGeneration = surfaceGeneration;
+			}
+			
+			float chunkWidth = TileMap.CHUNK_SIZE * this.tileWidth;
+			float chunkHeight = TileMap.CHUNK_SIZE * this.tileHeight;
+			
+			int firstColumn = Math.max((int)Math.floor((camera.x - this.x) / chunkWidth), 0);
+			int lastColumn = Math.min((int)Math.floor(((camera.x + camera.width) - this.x) / chunkWidth), this.chunkColumns - 1);
+			int firstRow = Math.max((int)Math.floor((camera.y - this.y) / chunkHeight), 0);
+			int lastRow = Math.min((int)Math.floor(((camera.y + camera.height) - this.y) / chunkHeight), this.chunkRows - 1);
+			
+			for (int row = firstRow; row <= lastRow; row++)
+			{
+				for (int column = firstColumn; column <= lastColumn; column++)
+				{
+					int index = getChunkIndex(column, row);
+					Chunk chunk = this.chunks[index];
+					
+					if (chunk == null)
+					{
+						chunk = new Chunk();
+						this.chunks[index] = chunk;
+					}
+					
+					if (chunk.dirty)
+					{
+						build(chunk, column, row, state);
+					}
+					
+					for (int i = 0; i < chunk.ranges; i++)
+					{
+						batch.draw(chunk.buffer, chunk.rangePages[i].getId(), chunk.rangeStarts[i], chunk.rangeSizes[i]);
+					}
+				}
+			}
+		}
+	}
+	
+	public void delete()
+	{
+		synchronized (this.lock)
+		{
+			for (int i = 0; i < this.chunks.length; i++)
+			{
+				if ((this.chunks[i] != null) && (this.chunks[i].buffer != null))
+				{
+					this.chunks[i].buffer.delete();
+				}
+				
+				this.chunks[i] = null;
+			}
+			
+			this.deleted = true;
+		}
+	}
+	
+	// the chunks of a map added again are built anew on its next render
+	public void restore()
+	{
+		synchronized (this.lock)
+		{
+			this.deleted = false;
+		}
+	}
+	
+	private int getChunkIndex(int column, int row)
+	{
+		return (row * this.chunkColumns) + column;
+	}
+	
+	private void build(Chunk chunk, int chunkColumn, int chunkRow, GLState state)
+	{
+		if (TileMap.vertices == null)
+		{
+			TileMap.vertices = new float[SpriteBatch.getVertexSize(TileMap.CHUNK_TILES) / 4];
+			
+			ByteBuffer vertexBytes = ByteBuffer.allocateDirect(SpriteBatch.getVertexSize(TileMap.CHUNK_TILES));
+			vertexBytes.order(ByteOrder.nativeOrder());
+			TileMap.vertexData = vertexBytes.asFloatBuffer();
+		}
+		
+		int firstColumn = chunkColumn * TileMap.CHUNK_SIZE;
+		int firstRow = chunkRow * TileMap.CHUNK_SIZE;
+		int lastColumn = Math.min(firstColumn + TileMap.CHUNK_SIZE, this.columns);
+		int lastRow = Math.min(firstRow + TileMap.CHUNK_SIZE, this.rows);
+		
+		float[] data = TileMap.vertices;
+		int offset = 0;
+		int sprites = 0;
+		chunk.ranges = 0;
+		
+		// tiles are grouped by atlas page, so each page is a single draw call
+		TexturePage page = findMissingPage(chunk, firstColumn, firstRow, lastColumn, lastRow);
+		
+		while (page != null)
+		{
+			chunk.addRange(page, sprites);
+			
+			for (int row = firstRow; row < lastRow; row++)
+			{
+				for (int column = firstColumn; column < lastColumn; column++)
+				{
+					Texture texture = getTexture(this.tiles[(row * this.columns) + column]);
+					
+					if ((texture != null) && texture.isReady() && (texture.getPage() == page))
+					{
+						offset = SpriteBatch.putSprite(data, offset, texture, this.x + (column * this.tileWidth), this.y + (row * this.tileHeight), this.tileWidth, this.tileHeight);
+						chunk.rangeSizes[chunk.ranges - 1]++;
+						sprites++;
+					}
+				}
+			}
+			
+			page = findMissingPage(chunk, firstColumn, firstRow, lastColumn, lastRow);
+		}
+		
+		chunk.dirty = isLoading(firstColumn, firstRow, lastColumn, lastRow);
+		
+		if (sprites == 0)
+		{
+			return;
+		}
+		
+		TileMap.vertexData.position(0);
+		TileMap.vertexData.put(data, 0, offset);
+		
+		if (chunk.buffer == null)
+		{
+			chunk.buffer = new BufferObject(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW, SpriteBatch.getVertexSize(TileMap.CHUNK_TILES), null);
+			chunk.buffer.create();
+			
+			// creating the buffer binds it behind the state cache
+			state.invalidateBuffers();
+		}
+		
+		state.bindBuffer(GLES20.GL_ARRAY_BUFFER, chunk.buffer.getId());
+		chunk.buffer.update(TileMap.vertexData, SpriteBatch.getVertexSize(sprites));
+	}
+	
+	private TexturePage findMissingPage(Chunk chunk, int firstColumn, int firstRow, int lastColumn, int lastRow)
+	{
+		for (int row = firstRow; row < lastRow; row++)
+		{
+			for (int column = firstColumn; column < lastColumn; column++)
+			{
+				Texture texture = getTexture(this.tiles[(row * this.columns) + column]);
+				
+				if ((texture != null) && texture.isReady() && (!chunk.hasPage(texture.getPage())))
+				{
+					return texture.getPage();
+				}
+			}
+		}
+		
+		return null;
+	}
+	
+	private boolean isLoading(int firstColumn, int firstRow, int lastColumn, int lastRow)
+	{
+		// chunks built while a texture is still loading are built again on the next frame
+		for (int row = firstRow; row < lastRow; row++)
+		{
+			for (int column = firstColumn; column < lastColumn; column++)
+			{
+				Texture texture = getTexture(this.tiles[(row * this.columns) + column]);
+				
+				if ((texture != null) && (!texture.isReady()))
+				{
+					return true;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	private Texture getTexture(int tile)
+	{
+		return ((tile > TileMap.EMPTY) && (tile <= this.tileset.length)) ? this.tileset[tile - 1] : null;
+	}
+	
+	private static class Chunk
+	{
+		public BufferObject buffer = null;
+		public boolean dirty = true;
+		
+		// one range of consecutive sprites per atlas page
+		public int ranges = 0;
+		public TexturePage[] rangePages = new TexturePage[2];
+		public int[] rangeStarts = new int[2];
+		public int[] rangeSizes = new int[2];
+		
+		public void addRange(TexturePage page, int start)
+		{
+			if (this.ranges == this.rangePages.length)
+			{
+				TexturePage[] newPages = new TexturePage[this.ranges * 2];
+				int[] newStarts = new int[this.ranges * 2];
+				int[] newSizes = new int[this.ranges * 2];
+				
+				System.arraycopy(this.rangePages, 0, newPages, 0, this.ranges);
+				System.arraycopy(this.rangeStarts, 0, newStarts, 0, this.ranges);
+				System.arraycopy(this.rangeSizes, 0, newSizes, 0, this.ranges);
+				
+				this.rangePages = newPages;
+				this.rangeStarts = newStarts;
+				this.rangeSizes = newSizes;
+			}
+			
+			this.rangePages[this.ranges] = page;
+			this.rangeStarts[this.ranges] = start;
+			this.rangeSizes[this.ranges] = 0;
+			this.ranges++;
+		}
+		
+		public boolean hasPage(TexturePage page)
+		{
+			for (int i = 0; i < this.ranges; i++)
+			{
+				if (this.rangePages[i] == page)
+				{
+					return true;
+				}
+			}
+			
+			return false;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,252 @@
+package com.misty.graphics.textures;
+
+import android.graphics.Bitmap;
+import com.misty.math.Rectangle;
+
+public class CollisionMask
+{
+	public final int width;
+	public final int height;
+	public final int words;
+	
+	// one bit per pixel, row after row from the top of the bitmap, pixel x of a row is bit (x % 64) of word (x / 64)
+	private final long[] bits;
+	
+	// one bit per 8x8 block of pixels, set when any pixel of the block is
+	private CollisionMask blocks = null;
+	
+	public static final int BLOCK_SHIFT = 3;
+	
+	public CollisionMask(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		this.words = (width + 63) >>> 6;
+		this.bits = new long[this.words * height];
+	}
+	
+	public static CollisionMask fromBitmap(Bitmap bitmap)
+	{
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		CollisionMask result = new CollisionMask(width, height);
+		int[] row = new int[width];
+		
+		for (int y = 0; y < height; y++)
+		{
+			bitmap.getPixels(row, 0, width, 0, y, width, 1);
+			
+			for (int x = 0; x < width; x++)
+			{
+				// alpha is the top byte of an ARGB color
+				if ((row[x] >>> 24) != 0)
+				{
+					result.set(x, y);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	public static CollisionMask opaque(int width, int height)
+	{
+		CollisionMask result = new CollisionMask(width, height);
+		
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				result.set(x, y);
+			}
+		}
+		
+		return result;
+	}
+	
+	public boolean get(int x, int y)
+	{
+		return ((this.bits[(y * this.words) + (x >>> 6)] & (1L << x)) != 0);
+	}
+	
+	public void set(int x, int y)
+	{
+		this.bits[(y * this.words) + (x >>> 6)] |= (1L << x);
+	}
+	
+	public long getWord(int y, int word)
+	{
+		return this.bits[(y * this.words) + word];
+	}
+	
+	// the 64 pixels of a row starting at x, pixels past the width are empty
+	public long getBits(int y, int x)
+	{
+		int index = (y * this.words) + (x >>> 6);
+		int shift = x & 63;
+		long result = this.bits[index] >>> shift;
+		
+		if ((shift != 0) && ((x >>> 6) + 1 < this.words))
+		{
+			result |= this.bits[index + 1] << (64 - shift);
+		}
+		
+		return result;
+	}
+	
+	public int getSizeInBytes()
+	{
+		return this.bits.length * 8;
+	}
+	
+	public CollisionMask getBlocks()
+	{
+		return this.blocks;
+	}
+	
+	public void buildBlocks()
+	{
+		int blockWidth = (this.width + 7) >>> CollisionMask.BLOCK_SHIFT;
+		int blockHeight = (this.height + 7) >>> CollisionMask.BLOCK_SHIFT;
+		CollisionMask result = new CollisionMask(blockWidth, blockHeight);
+		
+		for (int y = 0; y < this.height; y++)
+		{
+			for (int word = 0; word < this.words; word++)
+			{
+				long value = getWord(y, word);
+				
+				while (value != 0)
+				{
+					int x = (word << 6) + Long.numberOfTrailingZeros(value);
+					result.set(x >>> CollisionMask.BLOCK_SHIFT, y >>> CollisionMask.BLOCK_SHIFT);
+					
+					// the rest of the block is already marked
+					value &= ~(0xFFL << (x & 0x38));
+				}
+			}
+		}
+		
+		this.blocks = result;
+	}
+	
+	// ============================ OVERLAP =========================== \\
+	
+	// whether a width x height area starting at (x, y) of this mask and at (otherX, otherY) of the other one share a solid pixel,
+	// y and otherY are rows counted from the top like the bits, the area goes down from them
+	public boolean overlaps(int x, int y, CollisionMask other, int otherX, int otherY, int width, int height)
+	{
+		if ((width <= 0) || (height <= 0))
+		{
+			return false;
+		}
+		
+		int lastBlockRow = -1;
+		int lastOtherBlockRow = -1;
+		boolean emptyBlockRow = false;
+		boolean otherEmptyBlockRow = false;
+		
+		for (int row = 0; row < height; row++)
+		{
+			int rowY = y + row;
+			int otherRowY = otherY + row;
+			
+			// rows are skipped when the pyramid shows no solid block under the area
+			if ((rowY >>> CollisionMask.BLOCK_SHIFT) != lastBlockRow)
+			{
+				lastBlockRow = rowY >>> CollisionMask.BLOCK_SHIFT;
+				emptyBlockRow = isBlockRowEmpty(lastBlockRow, x, width);
+			}
+			
+			if ((otherRowY >>> CollisionMask.BLOCK_SHIFT) != lastOtherBlockRow)
+			{
+				lastOtherBlockRow = otherRowY >>> CollisionMask.BLOCK_SHIFT;
+				otherEmptyBlockRow = other.isBlockRowEmpty(lastOtherBlockRow, otherX, width);
+			}
+			
+			if (emptyBlockRow || otherEmptyBlockRow)
+			{
+				continue;
+			}
+			
+			for (int offset = 0; offset < width; offset += 64)
+			{
+				long common = getBits(rowY, x + offset) & other.getBits(otherRowY, otherX + offset);
+				int remaining = width - offset;
+				
+				if (remaining < 64)
+				{
+					common &= (1L << remaining) - 1;
+				}
+				
+				if (common != 0)
+				{
+					return true;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	private boolean isBlockRowEmpty(int blockRow, int x, int width)
+	{
+		if (this.blocks == null)
+		{
+			return false;
+		}
+		
+		int first = x >>> CollisionMask.BLOCK_SHIFT;
+		int count = ((x + width - 1) >>> CollisionMask.BLOCK_SHIFT) - first + 1;
+		
+		for (int offset = 0; offset < count; offset += 64)
+		{
+			long value = this.blocks.getBits(blockRow, first + offset);
+			int remaining = count - offset;
+			
+			if (remaining < 64)
+			{
+				value &= (1L << remaining) - 1;
+			}
+			
+			if (value != 0)
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	public Rectangle getBounds()
+	{
+		int minX = this.width;
+		int maxX = -1;
+		int minY = this.height;
+		int maxY = -1;
+		
+		for (int y = 0; y < this.height; y++)
+		{
+			for (int word = 0; word < this.words; word++)
+			{
+				long value = getWord(y, word);
+				
+				if (value != 0)
+				{
+					minX = Math.min(minX, (word << 6) + Long.numberOfTrailingZeros(value));
+					maxX = Math.max(maxX, (word << 6) + 63 - Long.numberOfLeadingZeros(value));
+					minY = Math.min(minY, y);
+					maxY = Math.max(maxY, y);
+				}
+			}
+		}
+		
+		if (maxX < 0)
+		{
+			return new Rectangle(0, 0, 0, 0);
+		}
+		
+		// the bounds are measured from the bottom, as the sprite is drawn
+		return new Rectangle(minX, this.height - 1 - maxY, (maxX - minX) + 1, (maxY - minY) + 1);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,233 @@
+package com.misty.graphics.textures;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import android.opengl.GLES20;
+
+public class CompressedImage
+{
+	public final int format;
+	public final int width;
+	public final int height;
+	public final ByteBuffer data;
+	
+	// formats
+	public static final int ETC1_RGB8 = 0x8D64;
+	public static final int ETC2_RGB8 = 0x9274;
+	public static final int ETC2_RGBA8 = 0x9278;
+	public static final int ETC2_RGB8_ALPHA1 = 0x9276;
+	private static final int ETC2_FIRST = 0x9270;
+	private static final int ETC2_LAST = 0x9279;
+	private static final int ASTC_FIRST = 0x93B0;
+	private static final int ASTC_LAST = 0x93DD;
+	
+	// support, known once a GL context exists
+	private static volatile boolean etc1Supported = false;
+	private static volatile boolean etc2Supported = false;
+	private static volatile boolean astcSupported = false;
+	
+	private static final byte[] KTX_IDENTIFIER = new byte[]
+		{
+		    (byte)0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte)0xBB, '\r', '\n', 0x1A, '\n'
+		};
+	private static final int KTX_ENDIANNESS = 0x04030201;
+	private static final int PKM_HEADER_SIZE = 16;
+	private static final int PKM_ETC1_RGB = 0;
+	private static final int PKM_ETC2_RGB = 1;
+	private static final int PKM_ETC2_RGBA = 3;
+	private static final int PKM_ETC2_RGBA1 = 4;
+	
+	public CompressedImage(int format, int width, int height, ByteBuffer data)
+	{
+		this.format = format;
+		this.width = width;
+		this.height = height;
+		this.data = data;
+	}
+	
+	public void upload()
+	{
+		this.data.position(0);
+		GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, this.format, this.width, this.height, 0, this.data.capacity(), this.data);
+	}
+	
+	// ============================ SUPPORT =========================== \\
+	
+	public static void detectSupport()
+	{
+		String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+		String version = GLES20.glGetString(GLES20.GL_VERSION);
+		
+		if (extensions == null)
+		{
+			extensions = "";
+		}
+		
+		CompressedImage.etc1Supported = extensions.contains("GL_OES_compressed_ETC1_RGB8_texture");
+		CompressedImage.astcSupported = extensions.contains("GL_KHR_texture_compression_astc_ldr");
+		
+		// ETC2 is part of every OpenGL ES 3 context, which GLSurfaceView may hand out even when asked for 2.0
+		CompressedImage.etc2Supported = (version != null) && version.startsWith("OpenGL ES 3");
+		
+		// ETC1 data is valid ETC2 data
+		CompressedImage.etc1Supported |= CompressedImage.etc2Supported;
+	}
+	
+	public static boolean isSupported(int format)
+	{
+		if (format == CompressedImage.ETC1_RGB8)
+		{
+			return CompressedImage.etc1Supported;
+		}
+		else if ((format >= CompressedImage.ETC2_FIRST) && (format <= CompressedImage.ETC2_LAST))
+		{
+			return CompressedImage.etc2Supported;
+		}
+		else if ((format >= CompressedImage.ASTC_FIRST) && (format <= CompressedImage.ASTC_LAST))
+		{
+			return CompressedImage.astcSupported;
+		}
+		
+		return false;
+	}
+	
+	// ============================ READING =========================== \\
+	
+	public static CompressedImage readKtx(InputStream inputStream) throws IOException
+	{
+		DataInputStream input = new DataInputStream(inputStream);
+		
+		byte[] identifier = new byte[CompressedImage.KTX_IDENTIFIER.length];
+		input.readFully(identifier);
+		
+		for (int i = 0; i < identifier.length; i++)
+		{
+			if (identifier[i] != CompressedImage.KTX_IDENTIFIER[i])
+			{
+				throw new IOException("Not a KTX file");
+			}
+		}
+		
+		// the header is written in the byte order of the tool that produced it
+		byte[] header = new byte[13 * 4];
+		input.readFully(header);
+		ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.BIG_ENDIAN);
+		
+		if (headerBuffer.getInt(0) != CompressedImage.KTX_ENDIANNESS)
+		{
+			headerBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		
+		int glType = headerBuffer.getInt(4);
+		int glInternalFormat = headerBuffer.getInt(16);
+		int width = headerBuffer.getInt(24);
+		int height = headerBuffer.getInt(28);
+		int keyValueSize = headerBuffer.getInt(48);
+		
+		if (glType != 0)
+		{
+			throw new IOException("KTX file is not compressed");
+		}
+		
+		skip(input, keyValueSize);
+		
+		// only the first mipmap level is used, sprites are drawn with nearest filtering
+		byte[] sizeBytes = new byte[4];
+		input.readFully(sizeBytes);
+		int imageSize = ByteBuffer.wrap(sizeBytes).order(headerBuffer.order()).getInt();
+		
+		return new CompressedImage(glInternalFormat, width, height, read(input, imageSize));
+	}
+	
+	public static CompressedImage readPkm(InputStream inputStream) throws IOException
+	{
+		DataInputStream input = new DataInputStream(inputStream);
+		
+		byte[] header = new byte[CompressedImage.PKM_HEADER_SIZE];
+		input.readFully(header);
+		
+		if ((header[0] != 'P') || (header[1] != 'K') || (header[2] != 'M') || (header[3] != ' '))
+		{
+			throw new IOException("Not a PKM file");
+		}
+		
+		ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.BIG_ENDIAN);
+		int pkmFormat = headerBuffer.getShort(6) & 0xFFFF;
+		int format;
+		int blockSize = 8;
+		
+		// version 1.0 files are always ETC1, 2.0 ones name their format
+		if ((header[4] == '1') && (header[5] == '0'))
+		{
+			format = CompressedImage.ETC1_RGB8;
+		}
+		else if ((header[4] == '2') && (header[5] == '0'))
+		{
+			switch (pkmFormat)
+			{
+				case CompressedImage.PKM_ETC1_RGB:
+					format = CompressedImage.ETC1_RGB8;
+					break;
+				case CompressedImage.PKM_ETC2_RGB:
+					format = CompressedImage.ETC2_RGB8;
+					break;
+				case CompressedImage.PKM_ETC2_RGBA:
+					format = CompressedImage.ETC2_RGBA8;
+					blockSize = 16;
+					break;
+				case CompressedImage.PKM_ETC2_RGBA1:
+					format = CompressedImage.ETC2_RGB8_ALPHA1;
+					break;
+				default:
+					throw new IOException("Unsupported PKM format: " + pkmFormat);
+			}
+		}
+		else
+		{
+			throw new IOException("Unsupported PKM version: " + (char)header[4] + (char)header[5]);
+		}
+		
+		int encodedWidth = headerBuffer.getShort(8) & 0xFFFF;
+		int encodedHeight = headerBuffer.getShort(10) & 0xFFFF;
+		int width = headerBuffer.getShort(12) & 0xFFFF;
+		int height = headerBuffer.getShort(14) & 0xFFFF;
+		
+		// 8 bytes per 4x4 block, 16 when the alpha has its own block
+		int imageSize = (encodedWidth / 4) * (encodedHeight / 4) * blockSize;
+		
+		return new CompressedImage(format, width, height, read(input, imageSize));
+	}
+	
+	private static ByteBuffer read(DataInputStream input, int size) throws IOException
+	{
+		byte[] bytes = new byte[size];
+		input.readFully(bytes);
+		
+		ByteBuffer result = ByteBuffer.allocateDirect(size);
+		result.order(ByteOrder.nativeOrder());
+		result.put(bytes);
+		result.position(0);
+		
+		return result;
+	}
+	
+	private static void skip(DataInputStream input, int size) throws IOException
+	{
+		int left = size;
+		
+		while (left > 0)
+		{
+			int skipped = input.skipBytes(left);
+			
+			if (skipped <= 0)
+			{
+				throw new IOException("Unexpected end of file");
+			}
+			
+			left -= skipped;
+		}
+	}
+}
\ No newline at end of file
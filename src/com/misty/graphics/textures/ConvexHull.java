@@ -0,0 +1,175 @@
+package com.misty.graphics.textures;
+
+import java.util.Arrays;
+import com.misty.math.Rectangle;
+
+public class ConvexHull
+{
+	public final int size;
+	
+	// counterclockwise, relative to the center of the texture with y going up, as the sprite is drawn
+	public final float[] x;
+	public final float[] y;
+	
+	// the hull is simplified until it has no more vertices than this
+	public static final int MAX_VERTICES = 12;
+	
+	// vertices whose removal takes less than this area (in pixels) are dropped anyway
+	private static final float MIN_AREA = 0.5f;
+	
+	private ConvexHull(float[] x, float[] y, int size)
+	{
+		this.x = x;
+		this.y = y;
+		this.size = size;
+	}
+	
+	public static ConvexHull box(Rectangle bounds, int width, int height)
+	{
+		if ((bounds.width <= 0) || (bounds.height <= 0))
+		{
+			return new ConvexHull(new float[0], new float[0], 0);
+		}
+		
+		float left = bounds.x - (width / 2f);
+		float bottom = bounds.y - (height / 2f);
+		float right = left + bounds.width;
+		float top = bottom + bounds.height;
+		
+		return new ConvexHull(new float[] { left, right, right, left }, new float[] { bottom, bottom, top, top }, 4);
+	}
+	
+	public static ConvexHull fromMask(CollisionMask mask)
+	{
+		// the outer corners of the first and last solid pixel of each row are enough to build the hull
+		long[] points = new long[mask.height * 4];
+		int count = 0;
+		
+		for (int row = 0; row < mask.height; row++)
+		{
+			int minX = -1;
+			int maxX = -1;
+			
+			for (int word = 0; word < mask.words; word++)
+			{
+				long value = mask.getWord(row, word);
+				
+				if (value != 0)
+				{
+					if (minX < 0)
+					{
+						minX = (word << 6) + Long.numberOfTrailingZeros(value);
+					}
+					
+					maxX = (word << 6) + 63 - Long.numberOfLeadingZeros(value);
+				}
+			}
+			
+			if (minX >= 0)
+			{
+				// the first row of the mask is the top of the sprite
+				int bottom = mask.height - 1 - row;
+				
+				points[count++] = ConvexHull.getPoint(minX, bottom);
+				points[count++] = ConvexHull.getPoint(minX, bottom + 1);
+				points[count++] = ConvexHull.getPoint(maxX + 1, bottom);
+				points[count++] = ConvexHull.getPoint(maxX + 1, bottom + 1);
+			}
+		}
+		
+		if (count == 0)
+		{
+			return new ConvexHull(new float[0], new float[0], 0);
+		}
+		
+		// sorted by x then y, both are positive
+		Arrays.sort(points, 0, count);
+		
+		long[] hull = new long[count + 1];
+		int size = 0;
+		
+		// monotone chain, lower half then upper half
+		for (int i = 0; i < count; i++)
+		{
+			while ((size >= 2) && (ConvexHull.cross(hull[size - 2], hull[size - 1], points[i]) <= 0))
+			{
+				size--;
+			}
+			
+			hull[size++] = points[i];
+		}
+		
+		int lower = size + 1;
+		
+		for (int i = count - 2; i >= 0; i--)
+		{
+			while ((size >= lower) && (ConvexHull.cross(hull[size - 2], hull[size - 1], points[i]) <= 0))
+			{
+				size--;
+			}
+			
+			hull[size++] = points[i];
+		}
+		
+		// the first point closes the chain
+		size--;
+		
+		size = ConvexHull.simplify(hull, size);
+		
+		float[] x = new float[size];
+		float[] y = new float[size];
+		
+		for (int i = 0; i < size; i++)
+		{
+			x[i] = (int)(hull[i] >>> 32) - (mask.width / 2f);
+			y[i] = (int)hull[i] - (mask.height / 2f);
+		}
+		
+		return new ConvexHull(x, y, size);
+	}
+	
+	// drops the vertex that takes the least area away from the hull until it is small enough
+	private static int simplify(long[] hull, int size)
+	{
+		while (size > 3)
+		{
+			int best = -1;
+			long bestArea = Long.MAX_VALUE;
+			
+			for (int i = 0; i < size; i++)
+			{
+				long area = ConvexHull.cross(hull[(i + size - 1) % size], hull[i], hull[(i + 1) % size]);
+				
+				if (area < bestArea)
+				{
+					bestArea = area;
+					best = i;
+				}
+			}
+			
+			// the cross product is twice the area of the triangle
+			if ((size <= ConvexHull.MAX_VERTICES) && (bestArea >= (ConvexHull.MIN_AREA * 2)))
+			{
+				break;
+			}
+			
+			System.arraycopy(hull, best + 1, hull, best, size - best - 1);
+			size--;
+		}
+		
+		return size;
+	}
+	
+	private static long getPoint(int x, int y)
+	{
+		return ((long)x << 32) | y;
+	}
+	
+	private static long cross(long origin, long a, long b)
+	{
+		long originX = origin >>> 32;
+		long originY = (int)origin;
+		
+		return (((a >>> 32) - originX) * ((int)b - originY)) - (((int)a - originY) * ((b >>> 32) - originX));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,88 @@
+package com.misty.graphics.textures;
+
+import android.opengl.GLES20;
+
+public class RenderTarget
+{
+	public final Texture texture;
+	private final TexturePage page;
+	private int framebufferId = 0;
+	
+	private static final int PAGE_INDEX = -1;
+	
+	public RenderTarget(int width, int height)
+	{
+		this.page = new TexturePage(RenderTarget.PAGE_INDEX, width, height, 0);
+		this.texture = new Texture(null, width, height);
+		this.texture.setRegion(this.page, 0, 0);
+		
+		// the first row of a framebuffer is its bottom one, unlike bitmaps
+		this.texture.v1 = 1;
+		this.texture.v2 = 0;
+		this.texture.setReady();
+	}
+	
+	public int getWidth()
+	{
+		return this.page.width;
+	}
+	
+	public int getHeight()
+	{
+		return this.page.height;
+	}
+	
+	public boolean isCreated()
+	{
+		return (this.framebufferId != 0);
+	}
+	
+	public boolean create()
+	{
+		this.page.create();
+		
+		int textureId = this.page.getId();
+		
+		if (textureId == 0)
+		{
+			return false;
+		}
+		
+		int[] framebufferIds = new int[1];
+		GLES20.glGenFramebuffers(1, framebufferIds, 0);
+		this.framebufferId = framebufferIds[0];
+		
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, this.framebufferId);
+		GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, textureId, 0);
+		int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+		
+		if (status != GLES20.GL_FRAMEBUFFER_COMPLETE)
+		{
+			delete();
+			
+			return false;
+		}
+		
+		return true;
+	}
+	
+	public void bind()
+	{
+		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, this.framebufferId);
+		GLES20.glViewport(0, 0, this.page.width, this.page.height);
+	}
+	
+	public void delete()
+	{
+		if (this.framebufferId != 0)
+		{
+			int[] framebufferIds = new int[] { this.framebufferId };
+			GLES20.glDeleteFramebuffers(1, framebufferIds, 0);
+			
+			this.framebufferId = 0;
+		}
+		
+		this.page.delete();
+	}
+}
\ No newline at end of file
@@ -1,13 +1,5 @@
 package com.misty.graphics.textures;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import android.graphics.Bitmap;
-import android.graphics.Color;
-import android.opengl.GLES20;
-import android.opengl.GLUtils;
-import android.opengl.Matrix;
 import com.misty.math.Rectangle;
 
 public class Texture
@@ -15,270 +7,118 @@ public class Texture
 	public final String path;
 	public final int width;
 	public final int height;
-	public final int[][] pixelMap;
-	public final Rectangle bounds;
+	public volatile Rectangle bounds;
 	
-	private int textureId;
-	private final FloatBuffer floatBuffer;
-	private final float[] modelMatrix = new float[16];
-	private final float[] finalMatrix = new float[16];
+	// collision, only built for the textures of collisionable processes
+	private volatile CollisionMask collisionMask = null;
+	private volatile boolean collisionMaskRequested = false;
 	
-	private static final int BYTES_PER_FLOAT = 4;
-	private static final int VERTICES_LENGTH = 16;
-	private static final int POSITION_COMPONENT_COUNT = 2;
-	private static final int TEXTURE_COORDINATES_COMPONENT_COUNT = 2;
-	private static final int STRIDE = (Texture.POSITION_COMPONENT_COUNT + Texture.TEXTURE_COORDINATES_COMPONENT_COUNT) * Texture.BYTES_PER_FLOAT;
+	// convex shapes of the opaque pixels, the box is known before the mask is
+	private volatile ConvexHull box;
+	private volatile ConvexHull hull = null;
 	
-	public Texture(String texturePath)
+	// set on the GL thread once the pixels are uploaded
+	private boolean ready = false;
+	
+	// region
+	private TexturePage page;
+	int regionX = 0;
+	int regionY = 0;
+	public float u1 = 0;
+	public float v1 = 0;
+	public float u2 = 1;
+	public float v2 = 1;
+	
+	Texture(String texturePath, int width, int height)
 	{
 		this.path = texturePath;
+		this.width = width;
+		this.height = height;
 		
-		Bitmap bitmap = TextureManager.getBitmap(this.path);
-		
-		this.width = bitmap.getWidth();
-		this.height = bitmap.getHeight();
-		
-		this.pixelMap = new int[this.width][this.height];
-		
-		for (int i = 0; i < this.width; i++)
-		{
-			for (int j = 0; j < this.height; j++)
-			{
-				this.pixelMap[i][j] = bitmap.getPixel(i, j);
-			}
-		}
-		
-		this.floatBuffer = getFloatBuffer(bitmap);
-		
-		this.bounds = getInternalBounds(this.pixelMap, this.width, this.height);
-		
-		loadTexture(bitmap);
+		// until its pixels are decoded (and for render targets, which have none) the bounds are the whole texture
+		setBounds(new Rectangle(0, 0, width, height));
 	}
 	
-	private Rectangle getInternalBounds(int[][] pixelMap, int width, int height)
+	public CollisionMask getCollisionMask()
 	{
-		int minX = getMinX(pixelMap);
-		int maxX = getMaxX(pixelMap);
-		int minY = getMinY(pixelMap, height);
-		int maxY = getMaxY(pixelMap, height);
-		
-		return new Rectangle(minX, minY, width - minX - maxX, height - maxY - minY);
+		return this.collisionMask;
 	}
 	
-	private int getMinX(int[][] source)
+	void setCollisionMask(CollisionMask collisionMask)
 	{
-		int result = 0;
-		
-		for (int[] array : source)
-		{
-			if (isEmpty(array))
-			{
-				result++;
-			}
-			else
-			{
-				break;
-			}
-		}
-		
-		return result;
+		collisionMask.buildBlocks();
+		setBounds(collisionMask.getBounds());
+		this.hull = ConvexHull.fromMask(collisionMask);
+		this.collisionMask = collisionMask;
 	}
 	
-	private int getMaxX(int[][] source)
+	void setBounds(Rectangle bounds)
 	{
-		int result = 0;
-		
-		for (int i = (source.length - 1); i >= 0; i--)
-		{
-			if (isEmpty(source[i]))
-			{
-				result++;
-			}
-			else
-			{
-				break;
-			}
-		}
-		
-		return result;
+		this.bounds = bounds;
+		this.box = ConvexHull.box(bounds, this.width, this.height);
 	}
 	
-	private int getMinY(int[][] source, int height)
+	public ConvexHull getBox()
 	{
-		boolean valid = true;
-		int result = -1;
-		
-		while ((result < height) && (valid))
-		{
-			result++;
-			
-			for (int[] array : source)
-			{
-				if (Color.alpha(array[height - result - 1]) > 0)
-				{
-					valid = false;
-					break;
-				}
-			}
-		}
-		
-		return result;
+		return this.box;
 	}
 	
-	private int getMaxY(int[][] source, int height)
+	// null until the mask is built
+	public ConvexHull getHull()
 	{
-		boolean valid = true;
-		int result = -1;
-		
-		while ((result < height) && (valid))
-		{
-			result++;
-			
-			for (int[] array : source)
-			{
-				if (Color.alpha(array[result]) > 0)
-				{
-					valid = false;
-					break;
-				}
-			}
-		}
-		
-		return result;
+		return this.hull;
 	}
 	
-	private boolean isEmpty(int[] row)
+	synchronized boolean requestCollisionMask()
 	{
-		boolean result = true;
-		
-		for (int color : row)
-		{
-			if (Color.alpha(color) > 0)
-			{
-				result = false;
-				break;
-			}
-		}
+		boolean result = (!this.collisionMaskRequested);
+		this.collisionMaskRequested = true;
 		
 		return result;
 	}
 	
-	public void render(float[] projectionMatrix, float x, float y, float scaleX, float scaleY, float angle, float orientationHorizontal, float orientationVertical, int uMatrixLocation, int uTextureUnitLocation, int aPositionLocation, int aTextureCoordinatesLocation)
+	boolean isCollisionMaskRequested()
 	{
-		Matrix.setIdentityM(this.modelMatrix, 0);
-		Matrix.translateM(this.modelMatrix, 0, x + (this.width / 2), y + (this.height / 2), 0);
-		Matrix.rotateM(this.modelMatrix, 0, angle, 0, 0, 1);
-		Matrix.scaleM(this.modelMatrix, 0, scaleX, scaleY, 1);
-		
-		if (orientationHorizontal == -1)
-		{
-			Matrix.scaleM(this.modelMatrix, 0, orientationHorizontal, 1, 1);
-		}
-		if (orientationVertical == -1)
-		{
-			Matrix.scaleM(this.modelMatrix, 0, 1, orientationVertical, 1);
-		}
-		
-		Matrix.multiplyMM(this.finalMatrix, 0, projectionMatrix, 0, this.modelMatrix, 0);
-		
-		// setting uniforms
-		GLES20.glUniformMatrix4fv(uMatrixLocation, 1, false, this.finalMatrix, 0);
-		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, this.textureId);
-		GLES20.glUniform1i(uTextureUnitLocation, 0);
-		
-		// rendering the texture
-		setVertexAttribPointer(0, aPositionLocation, Texture.POSITION_COMPONENT_COUNT, Texture.STRIDE);
-		setVertexAttribPointer(Texture.POSITION_COMPONENT_COUNT, aTextureCoordinatesLocation, Texture.TEXTURE_COORDINATES_COMPONENT_COUNT, Texture.STRIDE);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, Texture.VERTICES_LENGTH / (Texture.POSITION_COMPONENT_COUNT + Texture.TEXTURE_COORDINATES_COMPONENT_COUNT));
+		return this.collisionMaskRequested;
 	}
 	
-	private void setVertexAttribPointer(int dataOffset, int attributeLocation, int componentCount, int stride)
+	public void releaseCollisionMask()
 	{
-		this.floatBuffer.position(dataOffset);
-		GLES20.glVertexAttribPointer(attributeLocation, componentCount, GLES20.GL_FLOAT, false, stride, this.floatBuffer);
-		GLES20.glEnableVertexAttribArray(attributeLocation);
-		this.floatBuffer.position(0);
+		// the bounds and the hulls are kept, the narrowphase requests the mask again when it needs it
+		this.collisionMaskRequested = false;
+		this.collisionMask = null;
 	}
 	
-	private FloatBuffer getFloatBuffer(Bitmap bitmap)
+	public boolean isReady()
 	{
-		float imageWidth = bitmap.getWidth();
-		float imageHeight = bitmap.getHeight();
-		
-		float[] vertices =
-			{
-			    // Order of coordinates: X, Y, S, T
-			    
-			    // A----C
-			    // | /|
-			    // | / |
-			    // | / |
-			    // |/ |
-			    // B----D
-			    
-			    // Note: T is inverted!
-			    
-			    -imageWidth / 2, imageHeight / 2, 0f, 0f, //
-			    -imageWidth / 2, -imageHeight / 2, 0f, 1f, //
-			    imageWidth / 2, imageHeight / 2, 1f, 0f, //
-			    imageWidth / 2, -imageHeight / 2, 1f, 1f
-			};
-		
-		ByteBuffer byteBuffer = ByteBuffer.allocateDirect(vertices.length * Texture.BYTES_PER_FLOAT);
-		byteBuffer.order(ByteOrder.nativeOrder());
-		FloatBuffer result = byteBuffer.asFloatBuffer();
-		result.put(vertices);
-		
-		return result;
+		return this.ready;
 	}
 	
-	private void loadTexture(Bitmap bitmap)
+	void setReady()
 	{
-		int[] textureObjectIds = new int[1];
-		GLES20.glGenTextures(1, textureObjectIds, 0);
-		
-		if (textureObjectIds[0] != 0)
-		{
-			if (bitmap != null)
-			{
-				// Bind to the texture in OpenGL
-				GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureObjectIds[0]);
-				
-				// Set filtering: a default must be set, or the texture will be black.
-				GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-				GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-				
-				// Load the bitmap into the bound texture.
-				GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
-				
-				// Note: Following code may cause an error to be reported in the
-				// ADB log as follows: E/IMGSRV(20095): :0: HardwareMipGen:
-				// Failed to generate texture mipmap levels (error=3)
-				// No OpenGL error will be encountered (glGetError() will return
-				// 0). If this happens, just squash the source image to be
-				// square. It will look the same because of texture coordinates,
-				// and mipmap generation will work.
-				// GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
-				
-				// Recycle the bitmap, since its data has been loaded into OpenGL.
-				bitmap.recycle();
-				
-				// Unbind from the texture.
-				GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-				
-				this.textureId = textureObjectIds[0];
-			}
-			else
-			{
-				GLES20.glDeleteTextures(1, textureObjectIds, 0);
-			}
-		}
+		this.ready = true;
+	}
+	
+	void setRegion(TexturePage page, int x, int y)
+	{
+		this.page = page;
+		this.regionX = x;
+		this.regionY = y;
+		
+		// Note: T is inverted, the first row of the bitmap is at v1.
+		this.u1 = (float)x / page.width;
+		this.v1 = (float)y / page.height;
+		this.u2 = (float)(x + this.width) / page.width;
+		this.v2 = (float)(y + this.height) / page.height;
+	}
+	
+	public TexturePage getPage()
+	{
+		return this.page;
 	}
 	
-	public void reload()
+	public int getId()
 	{
-		Bitmap bitmap = TextureManager.getBitmap(this.path);
-		loadTexture(bitmap);
+		return (this.page == null) ? 0 : this.page.getId();
 	}
 }
\ No newline at end of file
@@ -1,11 +1,20 @@
 package com.misty.graphics.textures;
 
+import java.io.DataInputStream;
 import java.io.InputStream;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import com.misty.math.Rectangle;
 import com.misty.utils.Assets;
 
 public class TextureManager
@@ -13,39 +22,342 @@ public class TextureManager
 	private static final Object lock = new Object();
 	private static final Map<String, Texture> loadedTextures = new HashMap<String, Texture>();
 	
+	// atlas
+	private static final List<TexturePage> pages = new ArrayList<TexturePage>();
+	private static int PAGE_SIZE = 1024;
+	private static int PADDING = 2;
+	private static volatile int maxTextureSize = 2048;
+	
+	// asynchronous loading
+	private static ExecutorService loader = null;
+	private static volatile long uploadBudget = 4000000;
+	
+	// compressed textures, looked up next to the PNG and preferred when the device supports them
+	private static final String[] COMPRESSED_EXTENSIONS = new String[]
+		{
+		    ".ktx", ".pkm"
+		};
+	
+	public static void initialize(int pageSize, int padding)
+	{
+		TextureManager.PAGE_SIZE = pageSize;
+		TextureManager.PADDING = padding;
+	}
+	
 	public static void loadTextures(String... texturesPath)
 	{
-		for (String texturePath : texturesPath)
+		final int[] sizes = new int[texturesPath.length];
+		Integer[] order = new Integer[texturesPath.length];
+		
+		for (int i = 0; i < texturesPath.length; i++)
 		{
-			TextureManager.loadTexture(texturePath);
+			BitmapFactory.Options options = TextureManager.getBitmapSize(texturesPath[i]);
+			sizes[i] = Math.max(options.outWidth, options.outHeight);
+			order[i] = i;
+		}
+		
+		// packing the biggest textures first leaves fewer holes in the pages
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return sizes[b] - sizes[a];
+			}
+		});
+		
+		for (Integer index : order)
+		{
+			TextureManager.loadTexture(texturesPath[index]);
 		}
 	}
 	
 	public static Texture loadTexture(String texturePath)
 	{
-		Texture result = new Texture(texturePath);
+		Texture result = null;
+		CompressedImage image = TextureManager.getCompressedImage(texturePath);
 		
-		synchronized (TextureManager.lock)
+		if (image != null)
 		{
-			TextureManager.loadedTextures.put(texturePath, result);
+			result = new Texture(texturePath, image.width, image.height);
+			TextureManager.attach(result, image, null);
+		}
+		else
+		{
+			Bitmap bitmap = TextureManager.getBitmap(texturePath);
+			
+			if (bitmap != null)
+			{
+				result = new Texture(texturePath, bitmap.getWidth(), bitmap.getHeight());
+				TextureManager.attach(result, null, bitmap);
+			}
 		}
 		
 		return result;
 	}
 	
+	public static Texture requestTexture(String texturePath)
+	{
+		synchronized (TextureManager.lock)
+		{
+			Texture loaded = TextureManager.loadedTextures.get(texturePath);
+			
+			if (loaded != null)
+			{
+				return loaded;
+			}
+		}
+		
+		// the size is read from the header alone, so the texture can be used for layout before it is decoded
+		BitmapFactory.Options options = TextureManager.getBitmapSize(texturePath);
+		
+		if ((options.outWidth <= 0) || (options.outHeight <= 0))
+		{
+			return TextureManager.getTexture(texturePath);
+		}
+		
+		final Texture texture = new Texture(texturePath, options.outWidth, options.outHeight);
+		
+		synchronized (TextureManager.lock)
+		{
+			Texture loaded = TextureManager.loadedTextures.get(texturePath);
+			
+			if (loaded != null)
+			{
+				return loaded;
+			}
+			
+			TextureManager.loadedTextures.put(texturePath, texture);
+		}
+		
+		TextureManager.getLoader().execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+				
+				CompressedImage image = TextureManager.getCompressedImage(texture.path);
+				Bitmap bitmap = (image == null) ? TextureManager.getBitmap(texture.path) : null;
+				
+				if ((image != null) || (bitmap != null))
+				{
+					TextureManager.attach(texture, image, bitmap);
+				}
+			}
+		});
+		
+		return texture;
+	}
+	
+	public static void requestCollisionMask(final Texture texture)
+	{
+		if (texture.requestCollisionMask())
+		{
+			// queued behind the load of the texture itself, which may build the mask first
+			TextureManager.getLoader().execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+					
+					if (texture.isCollisionMaskRequested() && (texture.getCollisionMask() == null))
+					{
+						CollisionMask mask = TextureManager.getAlphaMask(texture.path, texture.width, texture.height);
+						
+						if (mask == null)
+						{
+							Bitmap bitmap = TextureManager.getBitmap(texture.path);
+							
+							if (bitmap != null)
+							{
+								mask = CollisionMask.fromBitmap(bitmap);
+								bitmap.recycle();
+							}
+						}
+						
+						texture.setCollisionMask((mask != null) ? mask : CollisionMask.opaque(texture.width, texture.height));
+					}
+				}
+			});
+		}
+	}
+	
+	private static ExecutorService getLoader()
+	{
+		synchronized (TextureManager.lock)
+		{
+			if (TextureManager.loader == null)
+			{
+				TextureManager.loader = Executors.newSingleThreadExecutor(new ThreadFactory()
+				{
+					@Override
+					public Thread newThread(Runnable runnable)
+					{
+						Thread thread = new Thread(runnable, "Misty texture loader");
+						thread.setDaemon(true);
+						
+						return thread;
+					}
+				});
+			}
+			
+			return TextureManager.loader;
+		}
+	}
+	
+	public static void prefetch(String... texturesPath)
+	{
+		for (String texturePath : texturesPath)
+		{
+			TextureManager.requestTexture(texturePath);
+		}
+	}
+	
+	private static void attach(Texture texture, CompressedImage image, Bitmap bitmap)
+	{
+		// the decoded pixels are reused when a collisionable process already asked for the mask
+		if (texture.isCollisionMaskRequested() && (texture.getCollisionMask() == null))
+		{
+			CollisionMask mask = (bitmap != null) ? CollisionMask.fromBitmap(bitmap) : TextureManager.getAlphaMask(texture.path, texture.width, texture.height);
+			texture.setCollisionMask((mask != null) ? mask : CollisionMask.opaque(texture.width, texture.height));
+		}
+		else
+		{
+			// every texture gets its opaque bounds, only collisionable ones keep a mask
+			Rectangle bounds = null;
+			
+			if (bitmap != null)
+			{
+				bounds = TextureManager.getOpaqueBounds(bitmap);
+			}
+			else
+			{
+				CollisionMask mask = TextureManager.getAlphaMask(texture.path, texture.width, texture.height);
+				
+				if (mask != null)
+				{
+					bounds = mask.getBounds();
+				}
+			}
+			
+			if (bounds != null)
+			{
+				texture.setBounds(bounds);
+			}
+		}
+		
+		synchronized (TextureManager.lock)
+		{
+			if (image != null)
+			{
+				TexturePage page = new TexturePage(TextureManager.pages.size(), image.width, image.height, 0);
+				page.addCompressed(texture, image);
+				TextureManager.pages.add(page);
+			}
+			else
+			{
+				TextureManager.addToAtlas(texture, bitmap);
+			}
+			
+			TextureManager.loadedTextures.put(texture.path, texture);
+		}
+	}
+	
+	private static void addToAtlas(Texture texture, Bitmap bitmap)
+	{
+		int pageSize = Math.min(TextureManager.PAGE_SIZE, TextureManager.maxTextureSize);
+		int padding = TextureManager.PADDING;
+		
+		if (((texture.width + (padding * 2)) > pageSize) || ((texture.height + (padding * 2)) > pageSize))
+		{
+			TexturePage page = new TexturePage(TextureManager.pages.size(), texture.width, texture.height, 0);
+			page.add(texture, bitmap);
+			TextureManager.pages.add(page);
+		}
+		else
+		{
+			boolean added = false;
+			int size = TextureManager.pages.size();
+			
+			for (int i = 0; i < size; i++)
+			{
+				if (TextureManager.pages.get(i).add(texture, bitmap))
+				{
+					added = true;
+					break;
+				}
+			}
+			
+			if (!added)
+			{
+				TexturePage page = new TexturePage(TextureManager.pages.size(), pageSize, pageSize, padding);
+				page.add(texture, bitmap);
+				TextureManager.pages.add(page);
+			}
+		}
+	}
+	
 	public static void reloadTextures()
 	{
+		CompressedImage.detectSupport();
+		
+		int[] values = new int[1];
+		GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, values, 0);
+		
+		if (values[0] > 0)
+		{
+			TextureManager.maxTextureSize = values[0];
+		}
+		
+		synchronized (TextureManager.lock)
+		{
+			int size = TextureManager.pages.size();
+			
+			for (int i = 0; i < size; i++)
+			{
+				TextureManager.pages.get(i).reload();
+			}
+		}
+	}
+	
+	public static void uploadTextures()
+	{
+		long deadline = System.nanoTime() + TextureManager.uploadBudget;
+		
 		synchronized (TextureManager.lock)
 		{
-			Collection<Texture> textures = TextureManager.loadedTextures.values();
+			int size = TextureManager.pages.size();
 			
-			for (Texture texture : textures)
+			for (int i = 0; i < size; i++)
 			{
-				texture.reload();
+				if (!TextureManager.pages.get(i).uploadPending(deadline))
+				{
+					break;
+				}
 			}
 		}
 	}
 	
+	public static void setUploadBudget(float milliseconds)
+	{
+		TextureManager.uploadBudget = Math.max((long)(milliseconds * 1E6f), 1);
+	}
+	
+	public static int getMaxTextureSize()
+	{
+		return TextureManager.maxTextureSize;
+	}
+	
+	public static int getPagesCount()
+	{
+		synchronized (TextureManager.lock)
+		{
+			return TextureManager.pages.size();
+		}
+	}
+	
 	public static Texture getTexture(String texturePath)
 	{
 		Texture result = null;
@@ -85,4 +397,139 @@ public class TextureManager
 		
 		return result;
 	}
+	
+	protected static CompressedImage getCompressedImage(String texturePath)
+	{
+		String basePath = TextureManager.getBasePath(texturePath);
+		
+		for (String extension : TextureManager.COMPRESSED_EXTENSIONS)
+		{
+			InputStream inputStream = null;
+			
+			try
+			{
+				inputStream = Assets.getInputStream(basePath + extension);
+				CompressedImage image = extension.equals(".pkm") ? CompressedImage.readPkm(inputStream) : CompressedImage.readKtx(inputStream);
+				
+				if (CompressedImage.isSupported(image.format))
+				{
+					return image;
+				}
+			}
+			catch (Exception e)
+			{
+			}
+			finally
+			{
+				Assets.close(inputStream);
+			}
+		}
+		
+		return null;
+	}
+	
+	private static Rectangle getOpaqueBounds(Bitmap bitmap)
+	{
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int[] row = new int[width];
+		int minX = width;
+		int maxX = -1;
+		int minY = height;
+		int maxY = -1;
+		
+		for (int y = 0; y < height; y++)
+		{
+			bitmap.getPixels(row, 0, width, 0, y, width, 1);
+			
+			for (int x = 0; x < width; x++)
+			{
+				// alpha is the top byte of an ARGB color
+				if ((row[x] >>> 24) != 0)
+				{
+					minX = Math.min(minX, x);
+					maxX = Math.max(maxX, x);
+					minY = Math.min(minY, y);
+					maxY = y;
+				}
+			}
+		}
+		
+		if (maxX < 0)
+		{
+			return new Rectangle(0, 0, 0, 0);
+		}
+		
+		// the bounds are measured from the bottom, as the sprite is drawn
+		return new Rectangle(minX, height - 1 - maxY, (maxX - minX) + 1, (maxY - minY) + 1);
+	}
+	
+	private static CollisionMask getAlphaMask(String texturePath, int width, int height)
+	{
+		CollisionMask result = null;
+		InputStream inputStream = null;
+		
+		try
+		{
+			// one bit per pixel, rows from the top, each row padded to a whole byte
+			inputStream = Assets.getInputStream(TextureManager.getBasePath(texturePath) + ".alpha");
+			DataInputStream input = new DataInputStream(inputStream);
+			CollisionMask mask = new CollisionMask(width, height);
+			byte[] row = new byte[(width + 7) / 8];
+			
+			for (int j = 0; j < height; j++)
+			{
+				input.readFully(row);
+				
+				for (int i = 0; i < width; i++)
+				{
+					if ((row[i >> 3] & (0x80 >> (i & 7))) != 0)
+					{
+						mask.set(i, j);
+					}
+				}
+			}
+			
+			result = mask;
+		}
+		catch (Exception e)
+		{
+		}
+		finally
+		{
+			Assets.close(inputStream);
+		}
+		
+		return result;
+	}
+	
+	private static String getBasePath(String texturePath)
+	{
+		int dot = texturePath.lastIndexOf('.');
+		
+		return (dot > texturePath.lastIndexOf('/')) ? texturePath.substring(0, dot) : texturePath;
+	}
+	
+	private static BitmapFactory.Options getBitmapSize(String texturePath)
+	{
+		BitmapFactory.Options result = new BitmapFactory.Options();
+		result.inJustDecodeBounds = true;
+		
+		InputStream inputStream = null;
+		
+		try
+		{
+			inputStream = Assets.getInputStream(texturePath);
+			BitmapFactory.decodeStream(inputStream, null, result);
+		}
+		catch (Exception e)
+		{
+		}
+		finally
+		{
+			Assets.close(inputStream);
+		}
+		
+		return result;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,354 @@
+package com.misty.graphics.textures;
+
+import java.util.ArrayList;
+import java.util.List;
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+public class TexturePage
+{
+	public final int index;
+	public final int width;
+	public final int height;
+	private final int padding;
+	private int textureId = 0;
+	private int format = 0;
+	private CompressedImage pendingImage = null;
+	private final List<Texture> textures = new ArrayList<Texture>();
+	private final List<Texture> pendingTextures = new ArrayList<Texture>();
+	private final List<Bitmap> pendingBitmaps = new ArrayList<Bitmap>();
+	
+	// skyline
+	private int skylineSize = 0;
+	private int[] skylineX = new int[16];
+	private int[] skylineY = new int[16];
+	private int[] skylineWidth = new int[16];
+	
+	public TexturePage(int index, int width, int height, int padding)
+	{
+		this.index = index;
+		this.width = width;
+		this.height = height;
+		this.padding = padding;
+		
+		addNode(0, padding, padding, width - padding);
+	}
+	
+	public int getId()
+	{
+		return this.textureId;
+	}
+	
+	public boolean add(Texture texture, Bitmap bitmap)
+	{
+		int paddedWidth = texture.width + this.padding;
+		int paddedHeight = texture.height + this.padding;
+		
+		int bestIndex = -1;
+		int bestX = 0;
+		int bestY = 0;
+		int bestTop = Integer.MAX_VALUE;
+		int bestWidth = Integer.MAX_VALUE;
+		
+		for (int i = 0; i < this.skylineSize; i++)
+		{
+			int y = fit(i, paddedWidth, paddedHeight);
+			
+			if (y >= 0)
+			{
+				int top = y + paddedHeight;
+				
+				if ((top < bestTop) || ((top == bestTop) && (this.skylineWidth[i] < bestWidth)))
+				{
+					bestIndex = i;
+					bestX = this.skylineX[i];
+					bestY = y;
+					bestTop = top;
+					bestWidth = this.skylineWidth[i];
+				}
+			}
+		}
+		
+		if (bestIndex == -1)
+		{
+			return false;
+		}
+		
+		addNode(bestIndex, bestX, bestTop, paddedWidth);
+		
+		texture.setRegion(this, bestX, bestY);
+		this.textures.add(texture);
+		
+		// the upload waits for the GL thread, see uploadPending()
+		this.pendingTextures.add(texture);
+		this.pendingBitmaps.add(bitmap);
+		
+		return true;
+	}
+	
+	public void addCompressed(Texture texture, CompressedImage image)
+	{
+		// compressed data cannot be copied into an RGBA page, the page holds this texture alone
+		this.format = image.format;
+		
+		texture.setRegion(this, 0, 0);
+		this.textures.add(texture);
+		this.pendingImage = image;
+	}
+	
+	private int fit(int index, int width, int height)
+	{
+		int x = this.skylineX[index];
+		
+		if ((x + width) > this.width)
+		{
+			return -1;
+		}
+		
+		int y = this.skylineY[index];
+		int widthLeft = width;
+		
+		while ((widthLeft > 0) && (index < this.skylineSize))
+		{
+			y = Math.max(y, this.skylineY[index]);
+			
+			if ((y + height) > this.height)
+			{
+				return -1;
+			}
+			
+			widthLeft -= this.skylineWidth[index];
+			index++;
+		}
+		
+		return y;
+	}
+	
+	private void addNode(int index, int x, int y, int width)
+	{
+		ensureCapacity(this.skylineSize + 1);
+		
+		System.arraycopy(this.skylineX, index, this.skylineX, index + 1, this.skylineSize - index);
+		System.arraycopy(this.skylineY, index, this.skylineY, index + 1, this.skylineSize - index);
+		System.arraycopy(this.skylineWidth, index, this.skylineWidth, index + 1, this.skylineSize - index);
+		
+		this.skylineX[index] = x;
+		this.skylineY[index] = y;
+		this.skylineWidth[index] = width;
+		this.skylineSize++;
+		
+		// shrink or drop the nodes now covered by the new one
+		for (int i = index + 1; i < this.skylineSize; i++)
+		{
+			int previousRight = this.skylineX[i - 1] + this.skylineWidth[i - 1];
+			
+			if (this.skylineX[i] < previousRight)
+			{
+				int shrink = previousRight - this.skylineX[i];
+				this.skylineX[i] += shrink;
+				this.skylineWidth[i] -= shrink;
+				
+				if (this.skylineWidth[i] <= 0)
+				{
+					removeNode(i);
+					i--;
+				}
+				else
+				{
+					break;
+				}
+			}
+			else
+			{
+				break;
+			}
+		}
+		
+		// merge neighbours at the same height
+		for (int i = 0; i < (this.skylineSize - 1); i++)
+		{
+			if (this.skylineY[i] == this.skylineY[i + 1])
+			{
+				this.skylineWidth[i] += this.skylineWidth[i + 1];
+				removeNode(i + 1);
+				i--;
+			}
+		}
+	}
+	
+	private void removeNode(int index)
+	{
+		int moved = this.skylineSize - index - 1;
+		
+		System.arraycopy(this.skylineX, index + 1, this.skylineX, index, moved);
+		System.arraycopy(this.skylineY, index + 1, this.skylineY, index, moved);
+		System.arraycopy(this.skylineWidth, index + 1, this.skylineWidth, index, moved);
+		
+		this.skylineSize--;
+	}
+	
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity > this.skylineX.length)
+		{
+			int newLength = this.skylineX.length * 2;
+			
+			int[] newX = new int[newLength];
+			int[] newY = new int[newLength];
+			int[] newWidth = new int[newLength];
+			
+			System.arraycopy(this.skylineX, 0, newX, 0, this.skylineSize);
+			System.arraycopy(this.skylineY, 0, newY, 0, this.skylineSize);
+			System.arraycopy(this.skylineWidth, 0, newWidth, 0, this.skylineSize);
+			
+			this.skylineX = newX;
+			this.skylineY = newY;
+			this.skylineWidth = newWidth;
+		}
+	}
+	
+	public boolean uploadPending(long deadline)
+	{
+		if ((this.pendingImage != null) && (System.nanoTime() < deadline))
+		{
+			uploadCompressed(this.pendingImage);
+			this.pendingImage = null;
+		}
+		
+		int size = this.pendingTextures.size();
+		int uploaded = 0;
+		
+		// the budget is checked before each upload, a single texture larger than the budget still goes up
+		while ((uploaded < size) && (System.nanoTime() < deadline))
+		{
+			Texture texture = this.pendingTextures.get(uploaded);
+			Bitmap bitmap = this.pendingBitmaps.get(uploaded);
+			upload(texture, bitmap);
+			texture.setReady();
+			
+			// Recycle the bitmap, since its data has been loaded into OpenGL.
+			bitmap.recycle();
+			
+			uploaded++;
+		}
+		
+		this.pendingTextures.subList(0, uploaded).clear();
+		this.pendingBitmaps.subList(0, uploaded).clear();
+		
+		return (uploaded == size) && (this.pendingImage == null);
+	}
+	
+	private void upload(Texture texture, Bitmap bitmap)
+	{
+		if (this.textureId == 0)
+		{
+			create();
+		}
+		
+		if (this.textureId != 0)
+		{
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, this.textureId);
+			GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, texture.regionX, texture.regionY, bitmap);
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+		}
+	}
+	
+	private void uploadCompressed(CompressedImage image)
+	{
+		int textureObjectId = generate();
+		
+		if (textureObjectId != 0)
+		{
+			image.upload();
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+			
+			this.textureId = textureObjectId;
+			
+			for (int i = 0; i < this.textures.size(); i++)
+			{
+				this.textures.get(i).setReady();
+			}
+		}
+	}
+	
+	void create()
+	{
+		int textureObjectId = generate();
+		
+		if (textureObjectId != 0)
+		{
+			// Allocate the page, its regions are filled in by texSubImage2D.
+			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, this.width, this.height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+			
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+			
+			this.textureId = textureObjectId;
+		}
+	}
+	
+	private int generate()
+	{
+		int[] textureObjectIds = new int[1];
+		GLES20.glGenTextures(1, textureObjectIds, 0);
+		
+		if (textureObjectIds[0] != 0)
+		{
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureObjectIds[0]);
+			
+			// Set filtering: a default must be set, or the texture will be black.
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+			
+			// Pages sized to a single oversized texture may not be a power of two.
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+		}
+		
+		return textureObjectIds[0];
+	}
+	
+	void delete()
+	{
+		if (this.textureId != 0)
+		{
+			int[] textureObjectIds = new int[] { this.textureId };
+			GLES20.glDeleteTextures(1, textureObjectIds, 0);
+			
+			this.textureId = 0;
+		}
+	}
+	
+	public void reload()
+	{
+		this.textureId = 0;
+		
+		if (this.format != 0)
+		{
+			// an image still waiting for its upload goes up now, uploadPending would otherwise create a second texture
+			CompressedImage image = (this.pendingImage != null) ? this.pendingImage : TextureManager.getCompressedImage(this.textures.get(0).path);
+			this.pendingImage = null;
+			
+			if (image != null)
+			{
+				uploadCompressed(image);
+			}
+			
+			return;
+		}
+		
+		int size = this.textures.size();
+		
+		for (int i = 0; i < size; i++)
+		{
+			Texture texture = this.textures.get(i);
+			Bitmap bitmap = TextureManager.getBitmap(texture.path);
+			
+			if (bitmap != null)
+			{
+				upload(texture, bitmap);
+				bitmap.recycle();
+			}
+		}
+	}
+}
\ No newline at end of file
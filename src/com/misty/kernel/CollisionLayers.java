@@ -0,0 +1,81 @@
+package com.misty.kernel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class CollisionLayers
+{
+	// bits given to the classes used in class based queries, from the top, the lower ones are left to the games
+	private static final Map<Class<?>, Integer> bits = new HashMap<Class<?>, Integer>();
+	private static final Map<Class<?>, Integer> categories = new HashMap<Class<?>, Integer>();
+	private static int nextBit = 31;
+	private static volatile int version = 0;
+	
+	public static final int DEFAULT_CATEGORY = 1;
+	public static final int ALL = 0xFFFFFFFF;
+	private static final int LAST_CLASS_BIT = 8;
+	
+	public static synchronized int getBit(Class<?> classe)
+	{
+		Integer bit = CollisionLayers.bits.get(classe);
+		
+		if (bit == null)
+		{
+			if (CollisionLayers.nextBit < CollisionLayers.LAST_CLASS_BIT)
+			{
+				throw new IllegalStateException("Too many classes used in collision queries: " + classe.getName());
+			}
+			
+			bit = 1 << CollisionLayers.nextBit;
+			CollisionLayers.nextBit--;
+			CollisionLayers.bits.put(classe, bit);
+			
+			// every category may include the new bit
+			CollisionLayers.categories.clear();
+			CollisionLayers.version++;
+		}
+		
+		return bit;
+	}
+	
+	public static int getMask(Class<?>... classes)
+	{
+		int result = 0;
+		
+		for (Class<?> classe : classes)
+		{
+			result |= CollisionLayers.getBit(classe);
+		}
+		
+		return result;
+	}
+	
+	// the bits of every registered class the given one is, or extends
+	public static synchronized int getCategory(Class<?> classe)
+	{
+		Integer category = CollisionLayers.categories.get(classe);
+		
+		if (category == null)
+		{
+			int result = 0;
+			
+			for (Map.Entry<Class<?>, Integer> entry : CollisionLayers.bits.entrySet())
+			{
+				if (entry.getKey().isAssignableFrom(classe))
+				{
+					result |= entry.getValue();
+				}
+			}
+			
+			category = result;
+			CollisionLayers.categories.put(classe, category);
+		}
+		
+		return category;
+	}
+	
+	public static int getVersion()
+	{
+		return CollisionLayers.version;
+	}
+}
\ No newline at end of file
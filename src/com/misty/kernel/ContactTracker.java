@@ -0,0 +1,204 @@
+package com.misty.kernel;
+
+import com.misty.utils.LongMap;
+
+public class ContactTracker
+{
+	// pair key -> index of the pair, the pairs in use are packed at the front
+	private final LongMap pairIndexes = new LongMap(256);
+	private Process[] processesA = new Process[64];
+	private Process[] processesB = new Process[64];
+	private int[] lastSeen = new int[64];
+	private boolean[] entered = new boolean[64];
+	private int pairCount = 0;
+	private int frame = 0;
+	
+	public void clear()
+	{
+		for (int i = 0; i < this.pairCount; i++)
+		{
+			this.processesA[i] = null;
+			this.processesB[i] = null;
+		}
+		
+		this.pairIndexes.clear();
+		this.pairCount = 0;
+	}
+	
+	public int size()
+	{
+		return this.pairCount;
+	}
+	
+	public void beginFrame()
+	{
+		this.frame++;
+	}
+	
+	// a pair found several times in the same frame is only counted once
+	public void addPair(Process processA, Process processB)
+	{
+		long key = ContactTracker.getKey(processA, processB);
+		int index = this.pairIndexes.get(key);
+		
+		if (index == LongMap.MISSING)
+		{
+			index = this.pairCount++;
+			
+			if (index == this.processesA.length)
+			{
+				grow(index * 2);
+			}
+			
+			this.processesA[index] = processA;
+			this.processesB[index] = processB;
+			this.entered[index] = false;
+			this.pairIndexes.put(key, index);
+		}
+		
+		this.lastSeen[index] = this.frame;
+	}
+	
+	// enter for the pairs new in this frame, stay for the ones seen again, exit for the ones that were not
+	public void dispatch()
+	{
+		int i = 0;
+		
+		while (i < this.pairCount)
+		{
+			Process processA = this.processesA[i];
+			Process processB = this.processesB[i];
+			
+			if (this.lastSeen[i] != this.frame)
+			{
+				removePair(i);
+				
+				ContactTracker.exit(processA, processB);
+				ContactTracker.exit(processB, processA);
+				
+				// the last pair took this place and is dispatched next
+				continue;
+			}
+			
+			if (this.entered[i])
+			{
+				ContactTracker.stay(processA, processB);
+				ContactTracker.stay(processB, processA);
+			}
+			else
+			{
+				this.entered[i] = true;
+				
+				ContactTracker.enter(processA, processB);
+				ContactTracker.enter(processB, processA);
+			}
+			
+			i++;
+		}
+	}
+	
+	// the processes still touching a removed one see it leave
+	public void removeProcess(Process process)
+	{
+		int i = 0;
+		
+		while (i < this.pairCount)
+		{
+			Process processA = this.processesA[i];
+			Process processB = this.processesB[i];
+			
+			if ((processA == process) || (processB == process))
+			{
+				boolean entered = this.entered[i];
+				removePair(i);
+				
+				if (entered)
+				{
+					ContactTracker.exit((processA == process) ? processB : processA, process);
+				}
+			}
+			else
+			{
+				i++;
+			}
+		}
+	}
+	
+	private void removePair(int index)
+	{
+		this.pairIndexes.remove(ContactTracker.getKey(this.processesA[index], this.processesB[index]));
+		
+		int last = --this.pairCount;
+		
+		if (index != last)
+		{
+			this.processesA[index] = this.processesA[last];
+			this.processesB[index] = this.processesB[last];
+			this.lastSeen[index] = this.lastSeen[last];
+			this.entered[index] = this.entered[last];
+			this.pairIndexes.put(ContactTracker.getKey(this.processesA[index], this.processesB[index]), index);
+		}
+		
+		this.processesA[last] = null;
+		this.processesB[last] = null;
+	}
+	
+	private void grow(int capacity)
+	{
+		Process[] newProcessesA = new Process[capacity];
+		System.arraycopy(this.processesA, 0, newProcessesA, 0, this.pairCount);
+		this.processesA = newProcessesA;
+		
+		Process[] newProcessesB = new Process[capacity];
+		System.arraycopy(this.processesB, 0, newProcessesB, 0, this.pairCount);
+		this.processesB = newProcessesB;
+		
+		int[] newLastSeen = new int[capacity];
+		System.arraycopy(this.lastSeen, 0, newLastSeen, 0, this.pairCount);
+		this.lastSeen = newLastSeen;
+		
+		boolean[] newEntered = new boolean[capacity];
+		System.arraycopy(this.entered, 0, newEntered, 0, this.pairCount);
+		this.entered = newEntered;
+	}
+	
+	// the lower id in the high half, so both orders of a pair share a key
+	private static long getKey(Process processA, Process processB)
+	{
+		int low = Math.min(processA.id, processB.id);
+		int high = Math.max(processA.id, processB.id);
+		
+		return (((long)low) << 32) | (high & 0xFFFFFFFFL);
+	}
+	
+	// ========================== EVENTS ========================= \\
+	
+	private static boolean accepts(Process process, Process other)
+	{
+		return process.collisionEvents && ((other.getCollisionCategory() & process.collidesWith) != 0);
+	}
+	
+	private static void enter(Process process, Process other)
+	{
+		if (ContactTracker.accepts(process, other))
+		{
+			process.onCollisionEnter(other);
+		}
+	}
+	
+	private static void stay(Process process, Process other)
+	{
+		if (ContactTracker.accepts(process, other))
+		{
+			process.onCollisionStay(other);
+		}
+	}
+	
+	private static void exit(Process process, Process other)
+	{
+		if (ContactTracker.accepts(process, other))
+		{
+			process.onCollisionExit(other);
+		}
+	}
+}
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.misty.kernel;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import android.content.Context;
 import android.util.Log;
@@ -8,12 +9,20 @@ import android.util.SparseArray;
 import android.view.MotionEvent;
 import com.misty.audio.AudioManager;
 import com.misty.debug.TimeCounter;
+import com.misty.graphics.Broadphase;
 import com.misty.graphics.Camera;
 import com.misty.graphics.CollisionGrid;
+import com.misty.graphics.CullingGrid;
+import com.misty.graphics.PairBroadphase;
+import com.misty.graphics.RenderQueue;
 import com.misty.graphics.Renderer;
 import com.misty.graphics.ScreenResolution;
+import com.misty.graphics.SnapshotBuffer;
+import com.misty.graphics.StaticLayerCache;
+import com.misty.graphics.TileMap;
 import com.misty.input.TouchEvent;
 import com.misty.utils.Assets;
+import com.misty.utils.WorkerPool;
 
 public class Engine
 {
@@ -24,15 +33,52 @@ public class Engine
 	private final SparseArray<Process> processesStatic = new SparseArray<Process>();
 	private final SparseArray<Process> processesDynamic = new SparseArray<Process>();
 	private final SparseArray<Process> processesCollisionable = new SparseArray<Process>();
+	private final SparseArray<Process> processesFixed = new SparseArray<Process>();
 	private final List<Process> newProcesses = new ArrayList<Process>();
-	private final List<Process> removedProcesses = new ArrayList<Process>();
+	private List<Process> removedProcesses = new ArrayList<Process>();
+	private List<Process> removingProcesses = new ArrayList<Process>();
 	
 	// collision
 	private final CollisionGrid collisionGrid = new CollisionGrid();
+	private Broadphase broadphase = this.collisionGrid;
+	private volatile Broadphase requestedBroadphase = null;
+	private volatile boolean parallelCollisions = false;
+	private WorkerPool collisionWorkers = null;
+	private final ContactTracker contacts = new ContactTracker();
+	private final List<Process> contactQuery = new ArrayList<Process>();
+	
+	// culling
+	private final CullingGrid cullingGrid = new CullingGrid();
 	
 	// video
 	public final Camera camera;
 	private Renderer renderer;
+	private final RenderQueue renderQueue = new RenderQueue();
+	
+	// tilemaps
+	private final List<TileMap> tileMaps = new ArrayList<TileMap>();
+	private final List<TileMap> removedTileMaps = new ArrayList<TileMap>();
+	
+	// static layers
+	private final StaticLayerCache staticLayers = new StaticLayerCache();
+	private volatile boolean staticLayersCached = false;
+	private boolean staticLayersActive = false;
+	
+	// simulation
+	private volatile boolean multithreaded = false;
+	private volatile boolean paused = false;
+	private volatile boolean simulationRunning = false;
+	private Thread simulationThread = null;
+	private final Object simulationLock = new Object();
+	private final SnapshotBuffer snapshots = new SnapshotBuffer();
+	
+	// timestep, requested from any thread and applied by the simulation before its next step
+	private float tickInterval = 0;
+	private int maxSteps = 5;
+	private float accumulator = 0;
+	private volatile float requestedTickInterval = 0;
+	private volatile int requestedMaxSteps = 5;
+	private volatile boolean timestepRequested = false;
 	
 	// audio
 	private final AudioManager audioManager;
@@ -212,12 +258,18 @@ public class Engine
 	public void pause(boolean finishing)
 	{
 		pauseAudio();
+		
+		this.paused = true;
+		stopSimulation();
+		
 		this.renderer.pause(finishing);
 	}
 	
 	public void resume()
 	{
 		resumeAudio();
+		
+		this.paused = false;
 	}
 	
 	public void stop()
@@ -247,8 +299,88 @@ public class Engine
 	
 	public void update(float delta, Renderer renderer)
 	{
-		this.logUpdateTotal.start();
+		if (this.multithreaded)
+		{
+			startSimulation();
+			
+			if (this.snapshots.hasPublished())
+			{
+				RenderQueue queue = this.snapshots.acquire();
+				render(renderer, queue, getInterpolation(queue));
+			}
+		}
+		else
+		{
+			stopSimulation();
+			
+			this.logUpdateTotal.start();
+			
+			applyTimestep();
+			float tickInterval = this.tickInterval;
+			
+			if (tickInterval > 0)
+			{
+				// without new ticks the previous render list is still valid
+				if (step(delta, tickInterval) > 0)
+				{
+					prepareRender(this.renderQueue);
+				}
+				
+				render(renderer, this.renderQueue, Math.min(this.accumulator / tickInterval, 1f));
+			}
+			else
+			{
+				simulate(delta);
+				prepareRender(this.renderQueue);
+				render(renderer, this.renderQueue, 1f);
+			}
+			
+			this.logUpdateTotal.stop();
+			
+			if (this.timersEnabled)
+			{
+				Log.e("DEBUG", "=====================================");
+			}
+		}
+	}
+	
+	private int step(float delta, float tickInterval)
+	{
+		int steps = 0;
+		this.accumulator += delta;
+		
+		while ((this.accumulator >= tickInterval) && (steps < this.maxSteps))
+		{
+			saveStates();
+			simulate(tickInterval);
+			
+			this.accumulator -= tickInterval;
+			steps++;
+		}
+		
+		if (this.accumulator >= tickInterval)
+		{
+			// too far behind (a GC pause, a slow frame): drop the time that could not be caught up
+			this.accumulator %= tickInterval;
+		}
+		
+		return steps;
+	}
+	
+	private void saveStates()
+	{
+		this.camera.saveState();
+		
+		int size = this.processesDynamic.size();
 		
+		for (int i = 0; i < size; i++)
+		{
+			this.processesDynamic.valueAt(i).saveState();
+		}
+	}
+	
+	private void simulate(float delta)
+	{
 		this.logCollisions.start();
 		updateCollisions();
 		this.logCollisions.stop();
@@ -257,14 +389,172 @@ public class Engine
 		updateProcesses(delta);
 		updateProcessesLists();
 		this.logProcesses.stop();
+	}
+	
+	// ======================== SIMULATION ====================== \\
+	
+	public void setMultithreaded(boolean multithreaded)
+	{
+		this.multithreaded = multithreaded;
+	}
+	
+	public boolean isMultithreaded()
+	{
+		return this.multithreaded;
+	}
+	
+	public void setFixedTimestep(int ticksPerSecond, int maxStepsPerFrame)
+	{
+		this.requestedMaxSteps = Math.max(maxStepsPerFrame, 1);
+		this.requestedTickInterval = (ticksPerSecond > 0) ? (1f / ticksPerSecond) : 0;
+		this.timestepRequested = true;
+	}
+	
+	public void setVariableTimestep()
+	{
+		this.requestedTickInterval = 0;
+		this.timestepRequested = true;
+	}
+	
+	private void applyTimestep()
+	{
+		if (this.timestepRequested)
+		{
+			this.timestepRequested = false;
+			this.maxSteps = this.requestedMaxSteps;
+			this.tickInterval = this.requestedTickInterval;
+			this.accumulator = 0;
+		}
+	}
+	
+	private float getInterpolation(RenderQueue queue)
+	{
+		float result = 1f;
+		
+		if (queue.tickInterval > 0)
+		{
+			// the snapshot holds the last two ticks, it is shown one tick late and blended by the time elapsed since
+			float elapsed = (System.nanoTime() - queue.time) / 1E9f;
+			result = Math.max(0f, Math.min(elapsed / queue.tickInterval, 1f));
+		}
+		
+		return result;
+	}
+	
+	// started from the GL thread and stopped from the UI one, a pause that stopped the thread keeps it stopped
+	private void startSimulation()
+	{
+		synchronized (this.simulationLock)
+		{
+			if ((this.simulationThread == null) && (!this.paused))
+			{
+				this.simulationRunning = true;
+				this.snapshots.open();
+				
+				this.simulationThread = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						runSimulation();
+					}
+				}, "Misty simulation");
+				
+				this.simulationThread.start();
+			}
+		}
+	}
+	
+	private void stopSimulation()
+	{
+		synchronized (this.simulationLock)
+		{
+			Thread thread = this.simulationThread;
+			
+			if (thread != null)
+			{
+				this.simulationRunning = false;
+				this.snapshots.release();
+				
+				while (true)
+				{
+					try
+					{
+						thread.join();
+						break;
+					}
+					catch (InterruptedException e)
+					{
+					}
+				}
+				
+				this.simulationThread = null;
+			}
+		}
+	}
+	
+	private void runSimulation()
+	{
+		android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_DISPLAY);
 		
-		render(renderer);
+		long startTime = System.nanoTime();
 		
-		this.logUpdateTotal.stop();
+		while (this.simulationRunning)
+		{
+			long currentTime = System.nanoTime();
+			float delta = (currentTime - startTime) / 1E9f;
+			startTime = currentTime;
+			
+			applyTimestep();
+			float tickInterval = this.tickInterval;
+			
+			if (tickInterval > 0)
+			{
+				this.logUpdateTotal.start();
+				int steps = step(delta, tickInterval);
+				
+				if (steps > 0)
+				{
+					prepareRender(this.snapshots.getWriteQueue());
+				}
+				
+				this.logUpdateTotal.stop();
+				
+				if (steps > 0)
+				{
+					this.snapshots.publish();
+				}
+				
+				sleep(tickInterval - this.accumulator);
+			}
+			else
+			{
+				this.logUpdateTotal.start();
+				simulate(delta);
+				prepareRender(this.snapshots.getWriteQueue());
+				this.logUpdateTotal.stop();
+				
+				this.snapshots.publish();
+				
+				// the GL thread only shows the latest snapshot, running further ahead would be wasted work
+				this.snapshots.awaitConsumed();
+			}
+		}
+	}
+	
+	private void sleep(float seconds)
+	{
+		long nanoseconds = (long)(seconds * 1E9f);
 		
-		if (this.timersEnabled)
+		if (nanoseconds > 0)
 		{
-			Log.e("DEBUG", "=====================================");
+			try
+			{
+				Thread.sleep(nanoseconds / 1000000, (int)(nanoseconds % 1000000));
+			}
+			catch (InterruptedException e)
+			{
+			}
 		}
 	}
 	
@@ -272,6 +562,7 @@ public class Engine
 	{
 		addNewProcesses();
 		removeProcesses();
+		updateStaticLayers();
 	}
 	
 	private void addNewProcesses()
@@ -283,6 +574,7 @@ public class Engine
 			for (int i = 0; i < numberNewProcesses; i++)
 			{
 				Process process = this.newProcesses.get(i);
+				process.saveState();
 				
 				if (process.isDynamic)
 				{
@@ -291,6 +583,12 @@ public class Engine
 				else
 				{
 					this.processesStatic.put(process.id, process);
+					indexStaticProcess(process);
+					
+					if (this.staticLayersActive)
+					{
+						this.staticLayers.add(process);
+					}
 				}
 				
 				if (process.isCollisionable)
@@ -305,13 +603,18 @@ public class Engine
 	
 	private void removeProcesses()
 	{
-		int numberRemovedProcesses = this.removedProcesses.size();
-		
-		if (numberRemovedProcesses > 0)
+		// the exit events of a removed process may finish others, they are removed in the same pass
+		while (!this.removedProcesses.isEmpty())
 		{
+			List<Process> removed = this.removedProcesses;
+			this.removedProcesses = this.removingProcesses;
+			this.removingProcesses = removed;
+			
+			int numberRemovedProcesses = removed.size();
+			
 			for (int i = 0; i < numberRemovedProcesses; i++)
 			{
-				Process process = this.removedProcesses.get(i);
+				Process process = removed.get(i);
 				
 				if (process.isDynamic)
 				{
@@ -320,15 +623,39 @@ public class Engine
 				else
 				{
 					this.processesStatic.remove(process.id);
+					this.processesFixed.remove(process.id);
+					this.cullingGrid.remove(process);
+					
+					if (this.staticLayersActive)
+					{
+						this.staticLayers.remove(process);
+					}
 				}
 				
 				if (process.isCollisionable)
 				{
 					this.processesCollisionable.remove(process.id);
+					this.broadphase.removeProcess(process);
+					this.contacts.removeProcess(process);
 				}
 			}
 			
-			this.removedProcesses.clear();
+			removed.clear();
+		}
+	}
+	
+	private void indexStaticProcess(Process process)
+	{
+		// processes drawn relative to the camera are always visible, the grid only holds world positions
+		if (process.fixedPosition)
+		{
+			this.cullingGrid.remove(process);
+			this.processesFixed.put(process.id, process);
+		}
+		else
+		{
+			this.processesFixed.remove(process.id);
+			this.cullingGrid.add(process);
 		}
 	}
 	
@@ -344,40 +671,315 @@ public class Engine
 	
 	private void updateCollisions()
 	{
-		this.collisionGrid.clear();
+		Broadphase requested = this.requestedBroadphase;
+		
+		if (requested != null)
+		{
+			// every process is added back by the loop below
+			this.requestedBroadphase = null;
+			this.broadphase.clear();
+			setCollisionWorkers(this.broadphase, null);
+			this.broadphase = requested;
+			this.broadphase.clear();
+			setCollisionWorkers(this.broadphase, this.collisionWorkers);
+		}
+		
+		if (this.parallelCollisions != (this.collisionWorkers != null))
+		{
+			if (this.collisionWorkers == null)
+			{
+				// the simulation thread takes its share of the work
+				this.collisionWorkers = new WorkerPool(WorkerPool.getBigCoreCount() - 1);
+			}
+			else
+			{
+				this.collisionWorkers.shutdown();
+				this.collisionWorkers = null;
+			}
+			
+			setCollisionWorkers(this.broadphase, this.collisionWorkers);
+		}
 		
 		int size = this.processesCollisionable.size();
 		
 		for (int i = 0; i < size; i++)
 		{
-			this.collisionGrid.addProcess(this.processesCollisionable.valueAt(i));
+			this.broadphase.updateProcess(this.processesCollisionable.valueAt(i));
+		}
+		
+		this.broadphase.finishUpdate();
+		
+		updateContacts();
+	}
+	
+	private static void setCollisionWorkers(Broadphase broadphase, WorkerPool workers)
+	{
+		if (broadphase instanceof PairBroadphase)
+		{
+			((PairBroadphase)broadphase).setWorkerPool(workers);
+		}
+	}
+	
+	// one pass over the pairs of this update, for the processes that receive collision events
+	private void updateContacts()
+	{
+		this.contacts.beginFrame();
+		
+		if (this.broadphase instanceof PairBroadphase)
+		{
+			PairBroadphase broadphase = (PairBroadphase)this.broadphase;
+			int pairs = broadphase.getPairCount();
+			
+			for (int i = 0; i < pairs; i++)
+			{
+				Process processA = broadphase.getPairA(i);
+				Process processB = broadphase.getPairB(i);
+				
+				if (processA.collisionEvents || processB.collisionEvents)
+				{
+					this.contacts.addPair(processA, processB);
+				}
+			}
+		}
+		else
+		{
+			int size = this.processesCollisionable.size();
+			
+			for (int i = 0; i < size; i++)
+			{
+				Process process = this.processesCollisionable.valueAt(i);
+				
+				if (process.collisionEvents)
+				{
+					this.broadphase.getCollisions(process, this.contactQuery, process.collidesWith);
+					
+					for (int j = 0; j < this.contactQuery.size(); j++)
+					{
+						this.contacts.addPair(process, this.contactQuery.get(j));
+					}
+				}
+			}
+			
+			this.contactQuery.clear();
 		}
+		
+		this.contacts.dispatch();
+	}
+	
+	// the narrowphase of broadphases that find every pair at once runs on the big cores
+	public void setParallelCollisions(boolean parallel)
+	{
+		this.parallelCollisions = parallel;
+	}
+	
+	public boolean isParallelCollisions()
+	{
+		return this.parallelCollisions;
+	}
+	
+	// the collision grid is used unless another broadphase is set, the change is applied on the next update
+	public void setBroadphase(Broadphase broadphase)
+	{
+		this.requestedBroadphase = (broadphase != null) ? broadphase : this.collisionGrid;
+	}
+	
+	public void setCollisionCellSize(int cellSize)
+	{
+		this.collisionGrid.setCellSize(cellSize);
 	}
 	
+	public void setCollisionCellSizeAuto(boolean auto)
+	{
+		this.collisionGrid.setAutoCellSize(auto);
+	}
+	
+	// the class based calls are kept, their classes are turned into a mask
 	public List<Process> getCollisions(Process process, Class<?>... classes)
 	{
-		return this.collisionGrid.getCollisions(process, classes);
+		return getCollisions(process, CollisionLayers.getMask(classes));
+	}
+	
+	public List<Process> getCollisions(Process process, int mask)
+	{
+		return this.broadphase.getCollisions(process, new ArrayList<Process>(), mask);
+	}
+	
+	public List<Process> getCollisions(Process process, List<Process> result, int mask)
+	{
+		return this.broadphase.getCollisions(process, result, mask);
+	}
+	
+	public void query(float left, float bottom, float right, float top, int mask, List<Process> result)
+	{
+		this.broadphase.query(left, bottom, right, top, mask, result);
+	}
+	
+	public void queryPoint(float x, float y, int mask, List<Process> result)
+	{
+		this.broadphase.queryPoint(x, y, mask, result);
+	}
+	
+	public void queryCircle(float x, float y, float radius, int mask, List<Process> result)
+	{
+		this.broadphase.queryCircle(x, y, radius, mask, result);
+	}
+	
+	public void queryRay(float x1, float y1, float x2, float y2, int mask, List<Process> result)
+	{
+		this.broadphase.queryRay(x1, y1, x2, y2, mask, result);
+	}
+	
+	public Process raycast(float x1, float y1, float x2, float y2, int mask)
+	{
+		return this.broadphase.raycast(x1, y1, x2, y2, mask);
+	}
+	
+	public void queryNearest(float x, float y, int count, float maxDistance, int mask, List<Process> result)
+	{
+		this.broadphase.queryNearest(x, y, count, maxDistance, mask, result);
+	}
+	
+	public boolean isSolid(float x, float y)
+	{
+		return this.collisionGrid.isSolid(x, y);
 	}
 	
-	private void render(Renderer renderer)
+	public boolean collidesWithTiles(Process process)
 	{
-		renderer.clearScreen(this.camera);
+		return this.collisionGrid.collidesWithTiles(process);
+	}
+	
+	// ========================= TILEMAPS ======================== \\
+	
+	public void addTileMap(TileMap tileMap)
+	{
+		this.tileMaps.add(tileMap);
+		this.collisionGrid.addTileMap(tileMap);
 		
-		this.logRender.start();
-		SparseArray<List<Process>> processesToRender = new SparseArray<List<Process>>();
-		int numberOfProcess = 0;
+		// a map removed earlier is kept, even when its buffers were already deleted
+		synchronized (this.removedTileMaps)
+		{
+			this.removedTileMaps.remove(tileMap);
+			tileMap.restore();
+		}
+	}
+	
+	public void removeTileMap(TileMap tileMap)
+	{
+		this.tileMaps.remove(tileMap);
+		this.collisionGrid.removeTileMap(tileMap);
 		
-		numberOfProcess += addProcessesToRender(this.processesDynamic, processesToRender);
-		numberOfProcess += addProcessesToRender(this.processesStatic, processesToRender);
+		// the buffers can only be deleted on the GL thread
+		synchronized (this.removedTileMaps)
+		{
+			this.removedTileMaps.add(tileMap);
+		}
+	}
+	
+	private void deleteRemovedTileMaps()
+	{
+		synchronized (this.removedTileMaps)
+		{
+			int size = this.removedTileMaps.size();
+			
+			for (int i = 0; i < size; i++)
+			{
+				this.removedTileMaps.get(i).delete();
+			}
+			
+			this.removedTileMaps.clear();
+		}
+	}
+	
+	// ====================== STATIC LAYERS ===================== \\
+	
+	public void setStaticLayersCached(boolean cached)
+	{
+		this.staticLayersCached = cached;
+	}
+	
+	public boolean isStaticLayersCached()
+	{
+		return this.staticLayersCached;
+	}
+	
+	public void setStaticLayersTiles(int tileSize, int maxTiles)
+	{
+		this.staticLayers.setTileSize(tileSize);
+		this.staticLayers.setMaxTiles(maxTiles);
+	}
+	
+	public void invalidateStaticLayers()
+	{
+		this.staticLayers.invalidate();
+	}
+	
+	void invalidateProcess(Process process)
+	{
+		if ((!process.isDynamic) && (this.processesStatic.get(process.id) == process))
+		{
+			indexStaticProcess(process);
+			
+			if (this.staticLayersActive)
+			{
+				this.staticLayers.update(process);
+			}
+		}
+	}
+	
+	private void updateStaticLayers()
+	{
+		boolean cached = this.staticLayersCached;
 		
-		renderProcesses(processesToRender, numberOfProcess, renderer);
-		this.logRender.stop();
+		if (cached != this.staticLayersActive)
+		{
+			this.staticLayersActive = cached;
+			
+			if (cached)
+			{
+				int size = this.processesStatic.size();
+				
+				for (int i = 0; i < size; i++)
+				{
+					this.staticLayers.add(this.processesStatic.valueAt(i));
+				}
+			}
+			else
+			{
+				this.staticLayers.clear();
+			}
+		}
 	}
 	
-	private int addProcessesToRender(SparseArray<Process> list, SparseArray<List<Process>> processesToRender)
+	// ========================= RENDER ========================= \\
+	
+	private void prepareRender(RenderQueue queue)
 	{
-		int result = 0;
+		queue.clear();
+		queue.camera.set(this.camera);
+		queue.tickInterval = this.tickInterval;
+		queue.time = System.nanoTime();
+		
+		addProcessesToRender(this.processesDynamic, queue);
+		addStaticProcessesToRender(queue);
+		
+		int size = this.tileMaps.size();
+		
+		for (int i = 0; i < size; i++)
+		{
+			TileMap tileMap = this.tileMaps.get(i);
+			
+			if (tileMap.isInside(this.camera))
+			{
+				queue.add(tileMap);
+			}
+		}
 		
+		queue.sort();
+	}
+	
+	private void addProcessesToRender(SparseArray<Process> list, RenderQueue queue)
+	{
 		int size = list.size();
 		
 		for (int i = 0; i < size; i++)
@@ -386,47 +988,62 @@ public class Engine
 			
 			if (this.camera.isInside(process))
 			{
-				List<Process> listOfProcesses = processesToRender.get(process.z);
-				
-				if (listOfProcesses == null)
-				{
-					listOfProcesses = new ArrayList<Process>();
-					listOfProcesses.add(process);
-					processesToRender.put(process.z, listOfProcesses);
-				}
-				else
-				{
-					listOfProcesses.add(process);
-				}
-				
-				result++;
+				process.render(queue);
 			}
 		}
-		
-		return result;
 	}
 	
-	private void renderProcesses(SparseArray<List<Process>> processesToRender, int numberOfProcess, Renderer renderer)
+	private void addStaticProcessesToRender(RenderQueue queue)
 	{
-		int zValue = 0;
-		int rendered = 0;
+		Camera camera = this.camera;
+		int count = this.cullingGrid.query(camera.x, camera.y, camera.x + camera.width, camera.y + camera.height);
+		int[] ids = this.cullingGrid.getResults();
 		
-		while (rendered < numberOfProcess)
+		// the grid reports processes cell by cell, sorting keeps overlapping sprites in a stable order while the camera moves
+		Arrays.sort(ids, 0, count);
+		
+		for (int i = 0; i < count; i++)
 		{
-			List<Process> listOfProcesses = processesToRender.get(zValue);
+			Process process = this.processesStatic.get(ids[i]);
 			
-			if (listOfProcesses != null)
+			// cached static processes are drawn with their layer tiles
+			if (this.staticLayersActive && this.staticLayers.contains(process))
 			{
-				int listSize = listOfProcesses.size();
-				rendered += listSize;
-				
-				for (int i = 0; i < listSize; i++)
-				{
-					listOfProcesses.get(i).render(renderer);
-				}
+				continue;
 			}
 			
-			zValue++;
+			if (camera.isInside(process))
+			{
+				process.render(queue);
+			}
+		}
+		
+		int size = this.processesFixed.size();
+		
+		for (int i = 0; i < size; i++)
+		{
+			this.processesFixed.valueAt(i).render(queue);
+		}
+	}
+	
+	private void render(Renderer renderer, RenderQueue queue, float interpolation)
+	{
+		Camera camera = queue.getCamera(interpolation);
+		deleteRemovedTileMaps();
+		
+		// tiles are redrawn before the frame starts, switching framebuffers mid-frame is expensive on tiled GPUs
+		this.staticLayers.prepare(renderer, camera);
+		renderer.clearScreen(camera);
+		
+		this.logRender.start();
+		queue.render(renderer, interpolation, this.staticLayers);
+		renderer.flush();
+		this.logRender.stop();
+		
+		if (this.timersEnabled)
+		{
+			Log.e("DEBUG", "SPRITES:    " + renderer.getSpritesDrawn() + " (" + renderer.getDrawCalls() + " draw calls)");
+			Log.e("DEBUG", "GL STATE:   " + renderer.getIssuedStateCalls() + " issued, " + renderer.getSkippedStateCalls() + " skipped");
 		}
 	}
 }
\ No newline at end of file
@@ -3,7 +3,8 @@ package com.misty.kernel;
 import java.util.List;
 import android.util.SparseArray;
 import com.misty.graphics.Camera;
-import com.misty.graphics.Renderer;
+import com.misty.graphics.CollisionShape;
+import com.misty.graphics.RenderQueue;
 import com.misty.graphics.textures.Texture;
 import com.misty.graphics.textures.TextureManager;
 import com.misty.input.TouchEvent;
@@ -38,6 +39,11 @@ public class Process
 	// angle
 	public float angle = 0;
 	
+	// previous tick, used to interpolate fixed timesteps
+	private float previousX = 0;
+	private float previousY = 0;
+	private float previousAngle = 0;
+	
 	// orientation
 	public int orientationHorizontal = 1;
 	public int orientationVertical = 1;
@@ -50,6 +56,16 @@ public class Process
 	public int width = 0;
 	public int height = 0;
 	
+	// collision layers, a process is found by queries whose mask shares a bit with its category
+	public int collisionCategory = CollisionLayers.DEFAULT_CATEGORY;
+	public int collidesWith = CollisionLayers.ALL;
+	public boolean collisionEvents = false;
+	
+	// pixels are only tested against pixels, and only while neither sprite is rotated, scaled or flipped
+	public CollisionShape collisionShape = CollisionShape.PIXELS;
+	private int classCategory = 0;
+	private int classCategoryVersion = -1;
+	
 	// alarm
 	private int nextAlarmId = 1;
 	private final SparseArray<Alarm> alarms = new SparseArray<Alarm>();
@@ -102,41 +118,84 @@ public class Process
 	{
 	}
 	
+	// called before the updates of the frame for processes with collision events, other being a process collidesWith accepts
+	@SuppressWarnings("unused")
+	public void onCollisionEnter(Process other)
+	{
+	}
+	
+	@SuppressWarnings("unused")
+	public void onCollisionStay(Process other)
+	{
+	}
+	
+	@SuppressWarnings("unused")
+	public void onCollisionExit(Process other)
+	{
+	}
+	
+	final void saveState()
+	{
+		this.previousX = this.x;
+		this.previousY = this.y;
+		this.previousAngle = this.angle;
+	}
+	
 	// ============================= TEXTURE =========================== \\
 	
-	public final void render(Renderer renderer)
+	public final void render(RenderQueue queue)
 	{
 		if (hasImage() && this.visible && (!isSpeeling()))
 		{
+			// static processes are not ticked, so their previous state is not kept up to date
+			float fromX = this.isDynamic ? this.previousX : this.x;
+			float fromY = this.isDynamic ? this.previousY : this.y;
+			float fromAngle = this.isDynamic ? this.previousAngle : this.angle;
+			
 			if (this.fixedPosition)
 			{
-				renderer.render(this.texture, this.x + this.camera.x, this.y + this.camera.y, this.scaleX, this.scaleY, this.angle, this.orientationHorizontal, this.orientationVertical);
+				queue.add(this.texture, this.z, fromX + this.camera.previousX, fromY + this.camera.previousY, fromAngle, this.x + this.camera.x, this.y + this.camera.y, this.scaleX, this.scaleY, this.angle, this.orientationHorizontal, this.orientationVertical);
 			}
 			else
 			{
-				renderer.render(this.texture, this.x, this.y, this.scaleX, this.scaleY, this.angle, this.orientationHorizontal, this.orientationVertical);
+				queue.add(this.texture, this.z, fromX, fromY, fromAngle, this.x, this.y, this.scaleX, this.scaleY, this.angle, this.orientationHorizontal, this.orientationVertical);
 			}
 		}
 	}
 	
+	public final void invalidate()
+	{
+		// static processes are culled and cached where they were last indexed, a game that changes their position,
+		// z, angle, scale, orientation, size, visible or fixedPosition has to call this, setImage() already does
+		this.engine.invalidateProcess(this);
+	}
+	
 	public final void setImage(String texturePath)
 	{
 		if (texturePath != null)
 		{
 			if ((this.texture == null) || (!texturePath.equals(this.texture.path)))
 			{
-				this.texture = TextureManager.getTexture(texturePath);
+				// the texture may still be loading, its size is already known
+				this.texture = TextureManager.requestTexture(texturePath);
 				
 				if (this.texture != null)
 				{
 					this.width = this.texture.width;
 					this.height = this.texture.height;
+					
+					if (this.isCollisionable)
+					{
+						TextureManager.requestCollisionMask(this.texture);
+					}
 				}
 				else
 				{
 					this.width = 0;
 					this.height = 0;
 				}
+				
+				invalidate();
 			}
 		}
 	}
@@ -161,6 +220,27 @@ public class Process
 		return new Rectangle(this.x, this.y, this.width, this.height);
 	}
 	
+	// the box around the process as it is drawn, rotated and scaled around its center, flips do not change it
+	public final Rectangle getCollisionBounds(Rectangle result)
+	{
+		if ((this.angle == 0) && (this.scaleX == 1) && (this.scaleY == 1))
+		{
+			return result.set(this.x, this.y, this.width, this.height);
+		}
+		
+		float radians = (float)Math.toRadians(this.angle);
+		float cos = Math.abs((float)Math.cos(radians));
+		float sin = Math.abs((float)Math.sin(radians));
+		float halfWidth = Math.abs(this.width * this.scaleX) / 2;
+		float halfHeight = Math.abs(this.height * this.scaleY) / 2;
+		float extentX = (halfWidth * cos) + (halfHeight * sin);
+		float extentY = (halfWidth * sin) + (halfHeight * cos);
+		float centerX = this.x + (this.width / 2f);
+		float centerY = this.y + (this.height / 2f);
+		
+		return result.set(centerX - extentX, centerY - extentY, extentX * 2, extentY * 2);
+	}
+	
 	// ============================= GEOMETRY =========================== \\
 	
 	public final float getAngle(Process process)
@@ -238,11 +318,54 @@ public class Process
 	
 	// ============================= COLLISION =========================== \\
 	
+	// every collision the process accepts, before the layers this call meant the classes version with none and found nothing
+	public final List<Process> getCollisions()
+	{
+		return this.engine.getCollisions(this, this.collidesWith);
+	}
+	
+	public final List<Process> getCollisions(List<Process> result)
+	{
+		return this.engine.getCollisions(this, result, this.collidesWith);
+	}
+	
+	public final List<Process> getCollisions(int mask)
+	{
+		return this.engine.getCollisions(this, mask);
+	}
+	
+	public final List<Process> getCollisions(List<Process> result, int mask)
+	{
+		return this.engine.getCollisions(this, result, mask);
+	}
+	
 	public final List<Process> getCollisions(Class<?>... classes)
 	{
 		return this.engine.getCollisions(this, classes);
 	}
 	
+	public final List<Process> getCollisions(List<Process> result, Class<?>... classes)
+	{
+		return this.engine.getCollisions(this, result, CollisionLayers.getMask(classes));
+	}
+	
+	// the explicit category plus the bits of the classes used in class based queries
+	public final int getCollisionCategory()
+	{
+		if (this.classCategoryVersion != CollisionLayers.getVersion())
+		{
+			this.classCategoryVersion = CollisionLayers.getVersion();
+			this.classCategory = CollisionLayers.getCategory(getClass());
+		}
+		
+		return this.collisionCategory | this.classCategory;
+	}
+	
+	public final boolean collidesWithTiles()
+	{
+		return this.engine.collidesWithTiles(this);
+	}
+	
 	// ============================= AUDIO =========================== \\
 	
 	public final void playSound(String soundPath)
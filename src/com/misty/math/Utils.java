@@ -10,4 +10,60 @@ public class Utils
 	{
 		return Utils.random.nextInt(max - min) + min;
 	}
+	
+	// slab test of the segment from (x1, y1) to (x2, y2) against a box
+	public static boolean intersectsSegment(float left, float bottom, float right, float top, float x1, float y1, float x2, float y2)
+	{
+		return (Utils.getSegmentHit(left, bottom, right, top, x1, y1, x2, y2) >= 0);
+	}
+	
+	// the fraction of the segment at which it enters the box, 0 when it starts inside, -1 when it misses
+	public static float getSegmentHit(float left, float bottom, float right, float top, float x1, float y1, float x2, float y2)
+	{
+		float enter = 0;
+		float exit = 1;
+		float dx = x2 - x1;
+		float dy = y2 - y1;
+		
+		if (dx == 0)
+		{
+			if ((x1 < left) || (x1 > right))
+			{
+				return -1;
+			}
+		}
+		else
+		{
+			float t1 = (left - x1) / dx;
+			float t2 = (right - x1) / dx;
+			enter = Math.max(enter, Math.min(t1, t2));
+			exit = Math.min(exit, Math.max(t1, t2));
+		}
+		
+		if (dy == 0)
+		{
+			if ((y1 < bottom) || (y1 > top))
+			{
+				return -1;
+			}
+		}
+		else
+		{
+			float t1 = (bottom - y1) / dy;
+			float t2 = (top - y1) / dy;
+			enter = Math.max(enter, Math.min(t1, t2));
+			exit = Math.min(exit, Math.max(t1, t2));
+		}
+		
+		return (enter <= exit) ? enter : -1;
+	}
+	
+	// from a point to the closest point of a box, 0 inside
+	public static float getDistanceSquared(float left, float bottom, float right, float top, float x, float y)
+	{
+		float dx = Math.max(Math.max(left - x, x - right), 0);
+		float dy = Math.max(Math.max(bottom - y, y - top), 0);
+		
+		return (dx * dx) + (dy * dy);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,158 @@
+package com.misty.utils;
+
+public class LongMap
+{
+	private long[] keys;
+	private int[] values;
+	private boolean[] used;
+	private int mask;
+	private int size = 0;
+	
+	public static final int MISSING = -1;
+	
+	public LongMap(int capacity)
+	{
+		allocate(Integer.highestOneBit(Math.max(capacity, 8) - 1) << 1);
+	}
+	
+	public LongMap()
+	{
+		this(16);
+	}
+	
+	private void allocate(int capacity)
+	{
+		this.keys = new long[capacity];
+		this.values = new int[capacity];
+		this.used = new boolean[capacity];
+		this.mask = capacity - 1;
+	}
+	
+	public int size()
+	{
+		return this.size;
+	}
+	
+	public void clear()
+	{
+		for (int i = 0; i < this.used.length; i++)
+		{
+			this.used[i] = false;
+		}
+		
+		this.size = 0;
+	}
+	
+	public int get(long key)
+	{
+		int index = getIndex(key);
+		
+		return (index < 0) ? LongMap.MISSING : this.values[index];
+	}
+	
+	public boolean containsKey(long key)
+	{
+		return (getIndex(key) >= 0);
+	}
+	
+	public void put(long key, int value)
+	{
+		int index = hash(key) & this.mask;
+		
+		while (this.used[index])
+		{
+			if (this.keys[index] == key)
+			{
+				this.values[index] = value;
+				
+				return;
+			}
+			
+			index = (index + 1) & this.mask;
+		}
+		
+		this.keys[index] = key;
+		this.values[index] = value;
+		this.used[index] = true;
+		this.size++;
+		
+		// at most half full keeps the probe sequences short
+		if ((this.size * 2) > this.keys.length)
+		{
+			grow();
+		}
+	}
+	
+	public void remove(long key)
+	{
+		int index = getIndex(key);
+		
+		if (index >= 0)
+		{
+			this.used[index] = false;
+			this.size--;
+			
+			// the following entries of the probe sequence are moved back into the hole, no tombstones are left
+			int next = (index + 1) & this.mask;
+			
+			while (this.used[next])
+			{
+				int home = hash(this.keys[next]) & this.mask;
+				
+				if (((next - home) & this.mask) >= ((next - index) & this.mask))
+				{
+					this.keys[index] = this.keys[next];
+					this.values[index] = this.values[next];
+					this.used[index] = true;
+					this.used[next] = false;
+					index = next;
+				}
+				
+				next = (next + 1) & this.mask;
+			}
+		}
+	}
+	
+	private int getIndex(long key)
+	{
+		int index = hash(key) & this.mask;
+		
+		while (this.used[index])
+		{
+			if (this.keys[index] == key)
+			{
+				return index;
+			}
+			
+			index = (index + 1) & this.mask;
+		}
+		
+		return -1;
+	}
+	
+	private void grow()
+	{
+		long[] oldKeys = this.keys;
+		int[] oldValues = this.values;
+		boolean[] oldUsed = this.used;
+		
+		allocate(oldKeys.length * 2);
+		this.size = 0;
+		
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldUsed[i])
+			{
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+	
+	private static int hash(long key)
+	{
+		// neighbouring cells and consecutive ids must not fall into neighbouring slots
+		long result = key * 0x9E3779B97F4A7C15L;
+		
+		return (int)(result ^ (result >>> 32));
+	}
+}
\ No newline at end of file
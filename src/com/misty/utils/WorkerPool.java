@@ -0,0 +1,243 @@
+package com.misty.utils;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WorkerPool
+{
+	private final Object lock = new Object();
+	private final Thread[] workers;
+	private Job job = null;
+	private int generation = 0;
+	private boolean running = true;
+	
+	public WorkerPool(int threads)
+	{
+		this.workers = new Thread[Math.max(threads, 0)];
+		
+		for (int i = 0; i < this.workers.length; i++)
+		{
+			this.workers[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_DISPLAY);
+					
+					work();
+				}
+			}, "Misty worker " + (i + 1));
+			
+			this.workers[i].setDaemon(true);
+			this.workers[i].start();
+		}
+	}
+	
+	public int getThreadCount()
+	{
+		return this.workers.length + 1;
+	}
+	
+	public void shutdown()
+	{
+		synchronized (this.lock)
+		{
+			this.running = false;
+			this.lock.notifyAll();
+		}
+	}
+	
+	// runs the task over [0, count) in chunks, on the workers and on the calling thread, and returns once every chunk is done
+	public void run(Task task, int count, int chunkSize)
+	{
+		if (count <= 0)
+		{
+			return;
+		}
+		
+		Job current = new Job(task, count, chunkSize);
+		
+		synchronized (this.lock)
+		{
+			this.job = current;
+			this.generation++;
+			this.lock.notifyAll();
+		}
+		
+		current.process();
+		
+		synchronized (this.lock)
+		{
+			while (current.done.get() < current.chunks)
+			{
+				try
+				{
+					this.lock.wait();
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+			
+			this.job = null;
+		}
+		
+		if (current.error != null)
+		{
+			throw new RuntimeException(current.error);
+		}
+	}
+	
+	private void work()
+	{
+		int seen = 0;
+		
+		while (true)
+		{
+			Job current;
+			
+			synchronized (this.lock)
+			{
+				while (this.running && ((this.generation == seen) || (this.job == null)))
+				{
+					try
+					{
+						this.lock.wait();
+					}
+					catch (InterruptedException e)
+					{
+					}
+				}
+				
+				if (!this.running)
+				{
+					return;
+				}
+				
+				seen = this.generation;
+				current = this.job;
+			}
+			
+			current.process();
+		}
+	}
+	
+	// ========================== CORES ========================= \\
+	
+	// cores above the lowest maximum frequency, all of them when they are the same or the frequencies cannot be read
+	public static int getBigCoreCount()
+	{
+		int cores = Runtime.getRuntime().availableProcessors();
+		long[] frequencies = new long[cores];
+		long lowest = Long.MAX_VALUE;
+		
+		for (int i = 0; i < cores; i++)
+		{
+			frequencies[i] = WorkerPool.readMaxFrequency(i);
+			
+			if (frequencies[i] <= 0)
+			{
+				return cores;
+			}
+			
+			lowest = Math.min(lowest, frequencies[i]);
+		}
+		
+		int result = 0;
+		
+		for (int i = 0; i < cores; i++)
+		{
+			if (frequencies[i] > lowest)
+			{
+				result++;
+			}
+		}
+		
+		return (result == 0) ? cores : result;
+	}
+	
+	private static long readMaxFrequency(int core)
+	{
+		long result = 0;
+		BufferedReader reader = null;
+		
+		try
+		{
+			reader = new BufferedReader(new FileReader("/sys/devices/system/cpu/cpu" + core + "/cpufreq/cpuinfo_max_freq"));
+			result = Long.parseLong(reader.readLine().trim());
+		}
+		catch (Exception e)
+		{
+			result = 0;
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (IOException e)
+				{
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	public interface Task
+	{
+		public void run(int start, int end);
+	}
+	
+	private class Job
+	{
+		private final Task task;
+		private final int count;
+		private final int chunkSize;
+		public final int chunks;
+		private final AtomicInteger next = new AtomicInteger();
+		public final AtomicInteger done = new AtomicInteger();
+		public volatile Throwable error = null;
+		
+		public Job(Task task, int count, int chunkSize)
+		{
+			this.task = task;
+			this.count = count;
+			this.chunkSize = Math.max(chunkSize, 1);
+			this.chunks = ((count + this.chunkSize) - 1) / this.chunkSize;
+		}
+		
+		// chunks are claimed one at a time, a thread that finishes early takes the next one
+		public void process()
+		{
+			int chunk;
+			
+			while ((chunk = this.next.getAndIncrement()) < this.chunks)
+			{
+				int start = chunk * this.chunkSize;
+				
+				try
+				{
+					this.task.run(start, Math.min(start + this.chunkSize, this.count));
+				}
+				catch (Throwable e)
+				{
+					this.error = e;
+				}
+				
+				if (this.done.incrementAndGet() == this.chunks)
+				{
+					synchronized (WorkerPool.this.lock)
+					{
+						WorkerPool.this.lock.notifyAll();
+					}
+				}
+			}
+		}
+	}
+}
\ No newline at end of file